@@ -0,0 +1,80 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.maazahmad.whatsapptranscriber.model.Expense;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QUERY_SPENDING over synthetic ledgers. calculateAnalytics is a thin wrapper around
+ * {@link ExpenseIndex#query}, so the index is benchmarked directly; {@code build} is the cost
+ * of a cache miss. Data is generated from a fixed seed so runs are comparable.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class AnalyticsBenchmark {
+
+    private static final String[] CATEGORIES = {"Food", "Transport", "Office", "Utilities", "Entertainment",
+            "Health", "Shopping", "Travel", "Education", "Other"};
+    private static final String[] ITEMS = {"lunch", "dinner", "coffee", "uber ride", "fuel", "groceries", "netflix",
+            "electricity bill", "notebook", "medicine", "shoes", "flight", "course", "pizza", "chicken wings"};
+    private static final LocalDate TODAY = LocalDate.of(2026, 6, 15);
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private List<Expense> expenses;
+    private ExpenseIndex index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        expenses = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            expenses.add(Expense.builder()
+                    .id((long) i + 1)
+                    .spreadsheetId("bench")
+                    .expenseDate(TODAY.minusDays(random.nextInt(3 * 365)))
+                    .item(ITEMS[random.nextInt(ITEMS.length)])
+                    .amount(50 + random.nextInt(5000) + random.nextInt(100) / 100.0)
+                    .currency("PKR")
+                    .merchant("Merchant " + random.nextInt(200))
+                    .category(CATEGORIES[random.nextInt(CATEGORIES.length)])
+                    .build());
+        }
+        index = ExpenseIndex.of(expenses);
+    }
+
+    @Benchmark
+    public ExpenseIndex.Result allTime() {
+        return index.query(null, null, null, null, null);
+    }
+
+    @Benchmark
+    public ExpenseIndex.Result lastSevenDays() {
+        return index.query(TODAY.minusDays(7), TODAY, null, null, null);
+    }
+
+    @Benchmark
+    public ExpenseIndex.Result yearByCategory() {
+        return index.query(TODAY.minusYears(1), TODAY, "food", null, null);
+    }
+
+    @Benchmark
+    public ExpenseIndex.Result yearByItem() {
+        return index.query(TODAY.minusYears(1), TODAY, null, null, "coffee");
+    }
+
+    @Benchmark
+    public ExpenseIndex build() {
+        return ExpenseIndex.of(expenses);
+    }
+}
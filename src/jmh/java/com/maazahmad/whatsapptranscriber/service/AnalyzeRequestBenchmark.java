@@ -0,0 +1,65 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * analyzeInput round-trip costs, old path against {@link AnalyzePromptTemplate}: formatting the
+ * prompt and serializing the request map on every call vs splicing the text into the pre-serialized
+ * body, and reading the whole response tree vs streaming to {@code choices[0].message.content}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalyzeRequestBenchmark {
+
+    private static final String TRANSCRIPTION = "I spent 1,250 rupees on chicken wings at KFC yesterday with friends";
+
+    // Shape of a Groq chat-completions reply, usage and metadata included
+    private static final byte[] RESPONSE = ("{\"id\":\"chatcmpl-4f2a\",\"object\":\"chat.completion\",\"created\":1767225600,"
+            + "\"model\":\"llama-3.3-70b-versatile\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\","
+            + "\"content\":\"{\\\"intent\\\":\\\"LOG_EXPENSE\\\",\\\"expenses\\\":[{\\\"item\\\":\\\"Chicken Wings\\\","
+            + "\\\"amount\\\":1250,\\\"currency\\\":\\\"PKR\\\",\\\"merchant\\\":\\\"KFC\\\",\\\"category\\\":\\\"Food\\\","
+            + "\\\"date\\\":\\\"2026-01-29\\\"}]}\"},\"logprobs\":null,\"finish_reason\":\"stop\"}],"
+            + "\"usage\":{\"queue_time\":0.021,\"prompt_tokens\":1104,\"prompt_time\":0.05,\"completion_tokens\":58,"
+            + "\"completion_time\":0.21,\"total_tokens\":1162,\"total_time\":0.26},"
+            + "\"system_fingerprint\":\"fp_3f3b593e33\",\"x_groq\":{\"id\":\"req_01jh\"}}").getBytes(StandardCharsets.UTF_8);
+
+    private ObjectMapper objectMapper;
+    private AnalyzePromptTemplate promptTemplate;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        promptTemplate = new AnalyzePromptTemplate(objectMapper);
+    }
+
+    @Benchmark
+    public byte[] requestPerCallMap() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(promptTemplate.buildRequest(TRANSCRIPTION, LocalDate.now()));
+    }
+
+    @Benchmark
+    public byte[] requestPrecompiled() {
+        return promptTemplate.render(TRANSCRIPTION);
+    }
+
+    @Benchmark
+    public String responseTree() throws IOException {
+        return objectMapper.readTree(RESPONSE).path("choices").get(0).path("message").path("content").asText();
+    }
+
+    @Benchmark
+    public String responseStreaming() {
+        return promptTemplate.extractContent(RESPONSE);
+    }
+}
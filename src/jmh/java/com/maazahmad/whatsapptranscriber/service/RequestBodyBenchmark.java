@@ -0,0 +1,42 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and serializing the outbound JSON bodies: the analyzeInput chat request (large system
+ * prompt) and the WhatsApp text reply.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBodyBenchmark {
+
+    private static final String TRANSCRIPTION = "I spent 1,250 rupees on chicken wings at KFC yesterday with friends";
+    private static final String REPLY = "✅ *Expense Saved!*\n🛒 *Item:* chicken wings\n💰 *Cost:* 1250 PKR";
+
+    private ObjectMapper objectMapper;
+    private AnalyzePromptTemplate promptTemplate;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        promptTemplate = new AnalyzePromptTemplate(objectMapper);
+    }
+
+    @Benchmark
+    public byte[] analyzeInputBody() {
+        return promptTemplate.render(TRANSCRIPTION);
+    }
+
+    @Benchmark
+    public byte[] sendReplyBody() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(WhatsAppService.buildReplyBody("923001234567", REPLY));
+    }
+}
@@ -0,0 +1,55 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maazahmad.whatsapptranscriber.dto.InboundMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a webhook POST body into messages, for a single message and for the batched
+ * deliveries Meta sends under load.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebhookParsingBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int messages;
+
+    private WebhookPayloadParser parser;
+    private String payload;
+
+    @Setup
+    public void setUp() {
+        parser = new WebhookPayloadParser(new ObjectMapper());
+
+        StringBuilder json = new StringBuilder("{\"object\":\"whatsapp_business_account\",\"entry\":[{\"id\":\"1\",\"changes\":[{\"field\":\"messages\",\"value\":{")
+                .append("\"messaging_product\":\"whatsapp\",\"metadata\":{\"display_phone_number\":\"15550000000\",\"phone_number_id\":\"1\"},")
+                .append("\"contacts\":[{\"profile\":{\"name\":\"Bench\"},\"wa_id\":\"923000000000\"}],\"messages\":[");
+        for (int i = 0; i < messages; i++) {
+            if (i > 0) json.append(',');
+            String from = "92300000" + String.format("%04d", i % 7);
+            if (i % 2 == 0) {
+                json.append("{\"from\":\"").append(from).append("\",\"id\":\"wamid.audio").append(i)
+                        .append("\",\"timestamp\":\"1700000000\",\"type\":\"audio\",\"audio\":{\"mime_type\":\"audio/ogg; codecs=opus\",")
+                        .append("\"sha256\":\"abc\",\"id\":\"media").append(i).append("\",\"voice\":true}}");
+            } else {
+                json.append("{\"from\":\"").append(from).append("\",\"id\":\"wamid.text").append(i)
+                        .append("\",\"timestamp\":\"1700000000\",\"type\":\"text\",\"text\":{\"body\":\"I spent 500 on lunch\"}}");
+            }
+        }
+        payload = json.append("]}}]}]}").toString();
+    }
+
+    @Benchmark
+    public List<InboundMessage> parse() throws IOException {
+        return parser.parse(payload, 0L);
+    }
+}
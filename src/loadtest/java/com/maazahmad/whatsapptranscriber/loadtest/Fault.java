@@ -0,0 +1,41 @@
+package com.maazahmad.whatsapptranscriber.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency and failure injection for one stubbed upstream, read from system properties
+ * {@code stub.<name>.latency-ms}, {@code .jitter-ms}, {@code .error-rate} and {@code .throttle-rate}.
+ */
+record Fault(String name, long latencyMillis, long jitterMillis, double errorRate, double throttleRate) {
+
+    enum Outcome { OK, ERROR, THROTTLED }
+
+    static Fault fromSystemProperties(String name, long defaultLatencyMillis) {
+        String prefix = "stub." + name + ".";
+        return new Fault(name,
+                Long.getLong(prefix + "latency-ms", defaultLatencyMillis),
+                Long.getLong(prefix + "jitter-ms", defaultLatencyMillis / 4),
+                Double.parseDouble(System.getProperty(prefix + "error-rate", "0")),
+                Double.parseDouble(System.getProperty(prefix + "throttle-rate", "0")));
+    }
+
+    /**
+     * Sleeps for this call's latency and decides whether it succeeds, fails with a 5xx or is throttled.
+     */
+    Outcome apply() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(-jitterMillis, jitterMillis + 1) : 0);
+        if (delay > 0) Thread.sleep(delay);
+
+        double roll = random.nextDouble();
+        if (roll < throttleRate) return Outcome.THROTTLED;
+        if (roll < throttleRate + errorRate) return Outcome.ERROR;
+        return Outcome.OK;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d±%d ms, %.1f%% errors, %.1f%% 429s",
+                name, latencyMillis, jitterMillis, errorRate * 100, throttleRate * 100);
+    }
+}
@@ -0,0 +1,159 @@
+package com.maazahmad.whatsapptranscriber.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fires webhook deliveries at a fixed rate and measures webhook-to-reply latency. Each sender's
+ * messages are processed in order and every message gets exactly one reply, so replies are matched
+ * to sends first-in-first-out per sender.
+ */
+class LoadDriver {
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final URI webhook;
+    private final List<String> senders;
+    private final double audioShare;
+
+    private final Map<String, Deque<Long>> inFlight = new ConcurrentHashMap<>();
+    private final List<Long> latenciesNanos = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicInteger webhookErrors = new AtomicInteger();
+    private final AtomicInteger errorReplies = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    LoadDriver(String appBaseUrl, List<String> senders, double audioShare) {
+        this.webhook = URI.create(appBaseUrl + "/webhook");
+        this.senders = senders;
+        this.audioShare = audioShare;
+    }
+
+    /**
+     * Called by the Graph API stub for every outbound WhatsApp message.
+     */
+    void onReply(String to, String text) {
+        // Progress notes aren't answers; the final reply follows
+        if (text.startsWith("⚙️")) return;
+        Deque<Long> pending = inFlight.get(to);
+        Long sentAt = pending != null ? pending.pollFirst() : null;
+        if (sentAt == null) return;
+        latenciesNanos.add(System.nanoTime() - sentAt);
+        if (text.startsWith("❌")) errorReplies.incrementAndGet();
+    }
+
+    Report run(double messagesPerSecond, Duration duration, Duration drain) throws InterruptedException {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+        long start = System.nanoTime();
+        ticker.scheduleAtFixedRate(this::sendOne, 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        Thread.sleep(duration.toMillis());
+        ticker.shutdownNow();
+        long sendWindowNanos = System.nanoTime() - start;
+
+        // Give in-flight messages a chance to finish before counting them as lost
+        long drainDeadline = System.nanoTime() + drain.toNanos();
+        while (pendingCount() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(200);
+        }
+        return report(sendWindowNanos, System.nanoTime() - start);
+    }
+
+    private void sendOne() {
+        String from = senders.get(ThreadLocalRandom.current().nextInt(senders.size()));
+        String id = "wamid.load" + sequence.incrementAndGet();
+        boolean audio = ThreadLocalRandom.current().nextDouble() < audioShare;
+        String message = audio
+                ? "{\"from\":\"" + from + "\",\"id\":\"" + id + "\",\"timestamp\":\"1700000000\",\"type\":\"audio\","
+                  + "\"audio\":{\"mime_type\":\"audio/ogg; codecs=opus\",\"id\":\"media-" + id + "\",\"voice\":true}}"
+                : "{\"from\":\"" + from + "\",\"id\":\"" + id + "\",\"timestamp\":\"1700000000\",\"type\":\"text\","
+                  + "\"text\":{\"body\":\"hi\"}}";
+        String payload = "{\"object\":\"whatsapp_business_account\",\"entry\":[{\"id\":\"1\",\"changes\":[{\"field\":\"messages\","
+                + "\"value\":{\"messaging_product\":\"whatsapp\",\"messages\":[" + message + "]}}]}]}";
+
+        Deque<Long> pending = inFlight.computeIfAbsent(from, k -> new ConcurrentLinkedDeque<>());
+        long sentAt = System.nanoTime();
+        pending.addLast(sentAt);
+        sent.incrementAndGet();
+
+        HttpRequest request = HttpRequest.newBuilder(webhook)
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload))
+                .build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() == 200) return;
+            // No reply will come for this one
+            pending.removeLastOccurrence(sentAt);
+            if (error == null && response.statusCode() == 503) busy.incrementAndGet();
+            else webhookErrors.incrementAndGet();
+        });
+    }
+
+    private int pendingCount() {
+        return inFlight.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    private Report report(long sendWindowNanos, long totalNanos) {
+        List<Long> sorted;
+        synchronized (latenciesNanos) {
+            sorted = new ArrayList<>(latenciesNanos);
+        }
+        Collections.sort(sorted);
+        return new Report(sent.get(), sorted.size(), busy.get(), webhookErrors.get(), errorReplies.get(), pendingCount(),
+                sendWindowNanos, totalNanos, percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0));
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) return 0;
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    record Report(int sent, int replied, int busy, int webhookErrors, int errorReplies, int lost,
+                  long sendWindowNanos, long totalNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+
+        double errorRate() {
+            return sent == 0 ? 0 : (double) (busy + webhookErrors + errorReplies + lost) / sent;
+        }
+
+        @Override
+        public String toString() {
+            double offered = sent / (sendWindowNanos / 1e9);
+            double throughput = replied / (totalNanos / 1e9);
+            return String.format("""
+                    sent            %d (%.1f msg/s offered)
+                    replied         %d (%.1f msg/s)
+                    503 BUSY        %d
+                    webhook errors  %d
+                    error replies   %d
+                    lost            %d
+                    error rate      %.2f%%
+                    latency p50     %d ms
+                    latency p99     %d ms
+                    latency max     %d ms""",
+                    sent, offered, replied, throughput, busy, webhookErrors, errorReplies, lost, errorRate() * 100,
+                    TimeUnit.NANOSECONDS.toMillis(p50Nanos), TimeUnit.NANOSECONDS.toMillis(p99Nanos),
+                    TimeUnit.NANOSECONDS.toMillis(maxNanos));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.maazahmad.whatsapptranscriber.loadtest;
+
+import com.maazahmad.whatsapptranscriber.WhatsAppTranscriberApplication;
+import com.maazahmad.whatsapptranscriber.model.User;
+import com.maazahmad.whatsapptranscriber.repository.UserRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Boots the real application against local stubs and an in-memory H2 database, drives webhook
+ * traffic at it and prints throughput, reply latency and error rate.
+ * <p>
+ * Run with {@code mvn -P loadtest test-compile exec:exec}. Knobs (system properties, pass via
+ * {@code -Dloadtest.args="..."}): {@code loadtest.rate} (msg/s), {@code loadtest.duration},
+ * {@code loadtest.drain}, {@code loadtest.users}, {@code loadtest.audio-share}, and per-upstream
+ * {@code stub.<graph|groq-audio|groq-chat|google>.<latency-ms|jitter-ms|error-rate|throttle-rate>}.
+ */
+public final class LoadTestMain {
+
+    private LoadTestMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = Double.parseDouble(System.getProperty("loadtest.rate", "20"));
+        Duration duration = Duration.parse(System.getProperty("loadtest.duration", "PT60S"));
+        Duration drain = Duration.parse(System.getProperty("loadtest.drain", "PT30S"));
+        int userCount = Integer.getInteger("loadtest.users", 500);
+        double audioShare = Double.parseDouble(System.getProperty("loadtest.audio-share", "0.9"));
+
+        AtomicReference<LoadDriver> driver = new AtomicReference<>();
+        try (StubApis stubs = new StubApis((to, text) -> {
+            LoadDriver current = driver.get();
+            if (current != null) current.onReply(to, text);
+        })) {
+            Path credentials = FakeServiceAccount.write(stubs.baseUrl() + "/token");
+            String base = stubs.baseUrl();
+
+            // Command-line style so these win over application.properties
+            String[] appArgs = {
+                    "--server.port=0",
+                    "--spring.datasource.url=jdbc:h2:mem:loadtest;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                    "--spring.datasource.username=sa",
+                    "--spring.datasource.password=",
+                    "--spring.datasource.driver-class-name=org.h2.Driver",
+                    "--spring.jpa.hibernate.ddl-auto=create-drop",
+                    "--whatsapp.api.url=" + base + "/graph",
+                    "--whatsapp.token=stub",
+                    "--whatsapp.phoneNumberId=1555000",
+                    "--whatsapp.verifyToken=stub",
+                    "--groq.api.key=stub",
+                    "--groq.api.url=" + base + "/groq/audio/transcriptions",
+                    "--groq.chat.url=" + base + "/groq/chat/completions",
+                    "--google.credentials.path=" + credentials,
+                    "--google.drive.folder.id=stub-folder",
+                    "--google.sheets.root-url=" + base + "/",
+                    "--google.drive.root-url=" + base + "/",
+                    "--ledger.pool.enabled=false",
+                    "--intent.fastpath.sample-rate=0",
+            };
+
+            ConfigurableApplicationContext app = new SpringApplicationBuilder(WhatsAppTranscriberApplication.class).run(appArgs);
+            try {
+                List<String> senders = seedUsers(app.getBean(UserRepository.class), userCount);
+                String appUrl = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port");
+
+                System.out.printf("%nLoad test: %.1f msg/s for %s, %d users, %.0f%% voice notes%n%s%n%n",
+                        rate, duration, userCount, audioShare * 100, stubs.describeFaults());
+                driver.set(new LoadDriver(appUrl, senders, audioShare));
+                LoadDriver.Report report = driver.get().run(rate, duration, drain);
+                System.out.println(report);
+            } finally {
+                app.close();
+            }
+        }
+    }
+
+    private static List<String> seedUsers(UserRepository userRepository, int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(User.builder()
+                    .phoneNumber(String.format("9230%08d", i))
+                    .spreadsheetId("stub-ledger-" + i)
+                    .email("user" + i + "@loadtest.local")
+                    .build());
+        }
+        return userRepository.saveAll(users).stream().map(User::getPhoneNumber).toList();
+    }
+}
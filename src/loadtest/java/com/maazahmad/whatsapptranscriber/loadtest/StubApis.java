@@ -0,0 +1,202 @@
+package com.maazahmad.whatsapptranscriber.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One local HTTP server standing in for every paid upstream:
+ * <ul>
+ *   <li>{@code /graph} - Graph API media lookup, media download and outbound messages</li>
+ *   <li>{@code /groq} - Whisper transcription and chat completions</li>
+ *   <li>{@code /v4/spreadsheets}, {@code /drive/v3} - Sheets values/batchUpdate and Drive files/permissions</li>
+ *   <li>{@code /token} - OAuth token endpoint for the fake service account</li>
+ * </ul>
+ * Each upstream has its own {@link Fault} profile.
+ */
+class StubApis implements AutoCloseable {
+
+    // Mix of utterances the fast path answers and ones that need the chat model
+    static final String[] TRANSCRIPTS = {
+            "I spent 500 on lunch",
+            "spent 1200 rupees on fuel at shell",
+            "how much did i spend on food this month",
+            "bought a few things from the market yesterday for about 800",
+            "undo that",
+            "paid the electricity bill of 4500 and groceries for 2300",
+    };
+
+    private static final Pattern APPEND = Pattern.compile("/v4/spreadsheets/([^/]+)/values/[^/]+:append");
+    private static final String LOG_ANALYSIS = "{\"intent\":\"LOG_EXPENSE\",\"expenses\":[{\"item\":\"groceries\",\"amount\":800,"
+            + "\"currency\":\"PKR\",\"merchant\":\"Market\",\"category\":\"Food\",\"date\":\"2026-01-01\"}]}";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Fault graph = Fault.fromSystemProperties("graph", 80);
+    private final Fault groqAudio = Fault.fromSystemProperties("groq-audio", 700);
+    private final Fault groqChat = Fault.fromSystemProperties("groq-chat", 500);
+    private final Fault google = Fault.fromSystemProperties("google", 150);
+    private final Map<String, AtomicInteger> sheetRows = new ConcurrentHashMap<>();
+    private final AtomicInteger driveFiles = new AtomicInteger();
+    private final BiConsumer<String, String> onReply;
+
+    /**
+     * @param onReply called with (recipient, text) for every WhatsApp message the service sends
+     */
+    StubApis(BiConsumer<String, String> onReply) throws IOException {
+        this.onReply = onReply;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+        server.createContext("/graph", this::graph);
+        server.createContext("/groq", this::groq);
+        server.createContext("/v4/spreadsheets", this::sheets);
+        server.createContext("/drive/v3", this::drive);
+        server.createContext("/token", exchange -> respond(exchange, 200,
+                "{\"access_token\":\"stub-token\",\"expires_in\":3600,\"token_type\":\"Bearer\"}"));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    String describeFaults() {
+        return String.join("\n", graph.toString(), groqAudio.toString(), groqChat.toString(), google.toString());
+    }
+
+    private void graph(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String body = readBody(exchange);
+        if (!proceed(exchange, graph)) return;
+
+        if (path.endsWith("/messages")) {
+            onReply.accept(jsonField(body, "to"), jsonField(body, "body"));
+            respond(exchange, 200, "{\"messages\":[{\"id\":\"wamid.out" + System.nanoTime() + "\"}]}");
+        } else if (path.startsWith("/graph/media-bytes/")) {
+            // Unique bytes per media id so the transcription cache doesn't short-circuit the run
+            byte[] audio = new byte[32 * 1024];
+            ThreadLocalRandom.current().nextBytes(audio);
+            exchange.getResponseHeaders().set("Content-Type", "audio/ogg");
+            exchange.sendResponseHeaders(200, audio.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(audio);
+            }
+        } else {
+            String mediaId = path.substring(path.lastIndexOf('/') + 1);
+            respond(exchange, 200, "{\"url\":\"" + baseUrl() + "/graph/media-bytes/" + mediaId + "\",\"mime_type\":\"audio/ogg\"}");
+        }
+    }
+
+    private void groq(HttpExchange exchange) throws IOException {
+        boolean chat = exchange.getRequestURI().getPath().contains("/chat/");
+        readBody(exchange);
+        if (!proceed(exchange, chat ? groqChat : groqAudio)) return;
+
+        if (chat) {
+            respond(exchange, 200, "{\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":"
+                    + quote(LOG_ANALYSIS) + "}}]}");
+        } else {
+            String text = TRANSCRIPTS[ThreadLocalRandom.current().nextInt(TRANSCRIPTS.length)];
+            respond(exchange, 200, "{\"text\":" + quote(text) + "}");
+        }
+    }
+
+    private void sheets(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        readBody(exchange);
+        if (!proceed(exchange, google)) return;
+
+        Matcher append = APPEND.matcher(path);
+        if (append.matches()) {
+            // Row 1 is the header; every append lands after the previous one
+            int row = sheetRows.computeIfAbsent(append.group(1), id -> new AtomicInteger(1)).incrementAndGet();
+            respond(exchange, 200, "{\"updates\":{\"updatedRange\":\"Sheet1!A" + row + ":F" + row + "\",\"updatedRows\":1}}");
+        } else if ("GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, 200, "{\"range\":\"Sheet1!A1:F1\",\"values\":[[\"Date\",\"Item\",\"Amount\",\"Currency\",\"Merchant\",\"Category\"]]}");
+        } else {
+            respond(exchange, 200, "{}");
+        }
+    }
+
+    private void drive(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        readBody(exchange);
+        if (!proceed(exchange, google)) return;
+
+        if (path.endsWith("/files") && "POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 200, "{\"id\":\"stub-sheet-" + driveFiles.incrementAndGet() + "\"}");
+        } else {
+            respond(exchange, 200, "{\"id\":\"stub-" + System.nanoTime() + "\"}");
+        }
+    }
+
+    // Applies the upstream's fault profile; returns false if an error response was already sent
+    private boolean proceed(HttpExchange exchange, Fault fault) throws IOException {
+        Fault.Outcome outcome;
+        try {
+            outcome = fault.apply();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = Fault.Outcome.ERROR;
+        }
+        switch (outcome) {
+            case THROTTLED -> {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, "{\"error\":{\"code\":429,\"message\":\"Quota exceeded\",\"status\":\"RESOURCE_EXHAUSTED\"}}");
+                return false;
+            }
+            case ERROR -> {
+                respond(exchange, 503, "{\"error\":{\"code\":503,\"message\":\"Backend unavailable\",\"status\":\"UNAVAILABLE\"}}");
+                return false;
+            }
+            default -> {
+                return true;
+            }
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Good enough for the flat JSON the service sends; avoids pulling a JSON parser into the stubs
+    private static String jsonField(String json, String field) {
+        Matcher m = Pattern.compile("\"" + field + "\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"").matcher(json);
+        return m.find() ? m.group(1) : "";
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -2,10 +2,8 @@ package com.maazahmad.whatsapptranscriber;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling; // New
-import org.springframework.web.client.RestTemplate;
 
 @SpringBootApplication
 @EnableAsync
@@ -15,9 +13,4 @@ public class WhatsAppTranscriberApplication {
     public static void main(String[] args) {
         SpringApplication.run(WhatsAppTranscriberApplication.class, args);
     }
-
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
 }
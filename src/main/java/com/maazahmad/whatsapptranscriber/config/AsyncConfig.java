@@ -0,0 +1,149 @@
+package com.maazahmad.whatsapptranscriber.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class AsyncConfig {
+
+    /**
+     * Worker pool for voice notes / onboarding. Bounded on both threads and queue so a burst
+     * turns into fast 503s (Meta redelivers later) instead of unbounded memory growth.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor messageProcessingExecutor(
+            @Value("${processing.executor.core-size:8}") int coreSize,
+            @Value("${processing.executor.max-size:32}") int maxSize,
+            @Value("${processing.executor.queue-capacity:200}") int queueCapacity) {
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("msg-worker-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Pushes local ledger changes to Google Sheets. Ordering per spreadsheet is handled by
+     * SheetSyncService, so this only needs enough threads to keep different sheets moving.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor sheetSyncExecutor(@Value("${ledger.sync.threads:4}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("sheet-sync-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Low-priority work nobody waits on (e.g. shadow LLM calls for fast-path sampling).
+     * Drops tasks when busy rather than competing with user traffic.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor backgroundExecutor(@Value("${background.executor.threads:2}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(50);
+        executor.setThreadNamePrefix("background-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor reportExecutor(@Value("${report.concurrency:8}") int concurrency) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setThreadNamePrefix("weekly-report-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Drives a weekly report run, which blocks until every chunk is sent. A single thread of its own
+     * keeps runs from overlapping and keeps the shared TaskScheduler free for short timers.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor reportRunExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("weekly-report-run-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Creates ledgers for the pre-provisioned sheet pool. LedgerPoolService lets only one refill run
+     * at a time, so the queue never holds more than one refill's worth of creations.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor sheetPoolExecutor(@Value("${ledger.pool.refill-concurrency:2}") int concurrency) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setThreadNamePrefix("sheet-pool-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Runs Groq requests so callers can stop waiting at their deadline and slow calls can be hedged.
+     * No queue: when every thread is busy a hedge is skipped and a primary call fails fast.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor groqExecutor(@Value("${groq.executor.threads:64}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("groq-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Drives the chunks of long voice notes; per-note parallelism is capped separately in GroqService.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor transcriptionChunkExecutor(@Value("${transcription.chunking.threads:16}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("transcribe-chunk-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Sends outbound WhatsApp replies. Ordering per recipient is handled by ReplyDispatcher; the
+     * queue is unbounded because each recipient's mailbox is already capped.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor replyExecutor(@Value("${whatsapp.outbound.threads:8}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("reply-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+}
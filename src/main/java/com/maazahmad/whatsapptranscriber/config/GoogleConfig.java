@@ -1,43 +1,103 @@
 package com.maazahmad.whatsapptranscriber.config;
 
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.DriveScopes;
+import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.SheetsScopes;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.GeneralSecurityException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sheets and Drive share one credential (one token refresh) and one pooled keep-alive transport
+ * (one TLS handshake per connection, reused by both clients). Pool usage is exported as
+ * {@code httpcomponents.httpclient.pool.*} with {@code httpclient="google"}.
+ */
 @Configuration
 public class GoogleConfig {
 
+    private static final String APPLICATION_NAME = "SpendTrace";
+
     @Value("${google.credentials.path}")
     private String credentialsPath;
 
     @Bean
     public GoogleCredentials googleCredentials() throws IOException {
-        return GoogleCredentials.fromStream(new FileInputStream(credentialsPath))
-                .createScoped(Arrays.asList(
-                        DriveScopes.DRIVE,
-                        SheetsScopes.SPREADSHEETS
-                ));
+        try (InputStream in = new FileInputStream(credentialsPath)) {
+            return GoogleCredentials.fromStream(in)
+                    .createScoped(Arrays.asList(
+                            DriveScopes.DRIVE,
+                            SheetsScopes.SPREADSHEETS
+                    ));
+        }
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public HttpTransport googleHttpTransport(MeterRegistry meterRegistry,
+                                             @Value("${google.http.max-connections:50}") int maxConnections,
+                                             @Value("${google.http.pool-wait-timeout:${google.http.connect-timeout:PT5S}}") Duration poolWaitTimeout) {
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(5, TimeUnit.MINUTES);
+        pool.setMaxTotal(maxConnections);
+        pool.setDefaultMaxPerRoute(maxConnections);
+        pool.setValidateAfterInactivity(10_000);
+
+        new PoolingHttpClientConnectionManagerMetricsBinder(pool, "google").bindTo(meterRegistry);
+
+        return new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // How long a call may wait for a free pooled connection; connect/read timeouts are set per request
+                        .setConnectionRequestTimeout((int) poolWaitTimeout.toMillis())
+                        .build())
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .build());
+    }
+
+    @Bean
+    public HttpRequestInitializer googleRequestInitializer(GoogleCredentials credentials,
+                                                           @Value("${google.http.connect-timeout:PT5S}") Duration connectTimeout,
+                                                           @Value("${google.http.read-timeout:PT30S}") Duration readTimeout) {
+        HttpCredentialsAdapter credentialsAdapter = new HttpCredentialsAdapter(credentials);
+        return request -> {
+            credentialsAdapter.initialize(request);
+            request.setConnectTimeout((int) connectTimeout.toMillis());
+            request.setReadTimeout((int) readTimeout.toMillis());
+        };
+    }
+
+    // Root URLs are only overridden to point at local stubs (load tests)
+    @Bean
+    public Drive driveClient(HttpTransport googleHttpTransport, HttpRequestInitializer googleRequestInitializer,
+                             @Value("${google.drive.root-url:" + Drive.DEFAULT_ROOT_URL + "}") String rootUrl) {
+        return new Drive.Builder(googleHttpTransport, GsonFactory.getDefaultInstance(), googleRequestInitializer)
+                .setRootUrl(rootUrl)
+                .setApplicationName(APPLICATION_NAME)
+                .build();
     }
 
     @Bean
-    public Drive driveClient(GoogleCredentials credentials) throws IOException, GeneralSecurityException {
-        return new Drive.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
-                GsonFactory.getDefaultInstance(),
-                new HttpCredentialsAdapter(credentials))
-                .setApplicationName("SpendTrace")
+    public Sheets sheetsClient(HttpTransport googleHttpTransport, HttpRequestInitializer googleRequestInitializer,
+                               @Value("${google.sheets.root-url:" + Sheets.DEFAULT_ROOT_URL + "}") String rootUrl) {
+        return new Sheets.Builder(googleHttpTransport, GsonFactory.getDefaultInstance(), googleRequestInitializer)
+                .setRootUrl(rootUrl)
+                .setApplicationName(APPLICATION_NAME)
                 .build();
     }
 }
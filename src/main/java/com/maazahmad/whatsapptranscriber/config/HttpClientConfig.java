@@ -0,0 +1,75 @@
+package com.maazahmad.whatsapptranscriber.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+/**
+ * One pooled, keep-alive HTTP client per destination so a slow Groq call can't starve WhatsApp
+ * replies of connections (or vice versa). Built through RestTemplateBuilder so Boot records
+ * {@code http.client.requests} latency per host; pool usage is exported as {@code httpcomponents.httpclient.pool.*}.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Bean
+    public RestTemplate groqRestTemplate(RestTemplateBuilder builder, MeterRegistry meterRegistry,
+                                         @Value("${http.groq.connect-timeout:PT5S}") Duration connectTimeout,
+                                         @Value("${http.groq.read-timeout:PT60S}") Duration readTimeout,
+                                         @Value("${http.groq.max-connections:50}") int maxConnections) {
+        return pooledRestTemplate(builder, meterRegistry, "groq", connectTimeout, readTimeout, maxConnections);
+    }
+
+    @Bean
+    public RestTemplate whatsappRestTemplate(RestTemplateBuilder builder, MeterRegistry meterRegistry,
+                                             @Value("${http.whatsapp.connect-timeout:PT5S}") Duration connectTimeout,
+                                             @Value("${http.whatsapp.read-timeout:PT30S}") Duration readTimeout,
+                                             @Value("${http.whatsapp.max-connections:50}") int maxConnections) {
+        return pooledRestTemplate(builder, meterRegistry, "whatsapp", connectTimeout, readTimeout, maxConnections);
+    }
+
+    private RestTemplate pooledRestTemplate(RestTemplateBuilder builder, MeterRegistry meterRegistry, String name,
+                                            Duration connectTimeout, Duration readTimeout, int maxConnections) {
+        PoolingHttpClientConnectionManager pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.ofMinutes(5))
+                        .build())
+                .build();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // Waiting for a free pooled connection counts against the connect budget
+                        .setConnectionRequestTimeout(Timeout.of(connectTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(30))
+                .build();
+
+        new PoolingHttpClientConnectionManagerMetricsBinder(pool, name).bindTo(meterRegistry);
+
+        return builder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+                .build();
+    }
+}
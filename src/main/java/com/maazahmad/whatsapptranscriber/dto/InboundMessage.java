@@ -0,0 +1,18 @@
+package com.maazahmad.whatsapptranscriber.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A single WhatsApp message lifted out of the webhook payload, ready to hand to the processing stage.
+ */
+@Value
+@Builder
+public class InboundMessage {
+    String id;
+    String from;
+    String type;
+    String mediaId;  // audio messages only
+    String textBody; // text messages only
+    long receivedAtNanos;
+}
@@ -0,0 +1,131 @@
+package com.maazahmad.whatsapptranscriber.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Local mirror of one ledger row. The Google Sheet is a projection of this table: {@code sheetRow}
+ * stays null until the row has been appended to the sheet.
+ */
+@Entity
+@Table(name = "expenses", indexes = @Index(name = "idx_expenses_spreadsheet", columnList = "spreadsheetId"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Expense {
+    // Hidden column G holds the expense id, so a row whose append looked failed can be recognised later
+    public static final int ID_COLUMN = 6;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String spreadsheetId;
+
+    // 1-based row in Sheet1, null until synced. Only SheetSyncService moves it (through targeted
+    // updates), so saving a stale copy of the expense can't undo an append or a clear
+    @Column(updatable = false)
+    private Integer sheetRow;
+
+    private LocalDate expenseDate;
+    private String item;
+    private Double amount;
+    private String currency;
+    private String merchant;
+    private String category;
+
+    // Soft delete so the sheet row can still be cleared after an undo
+    private boolean deleted;
+
+    // Bumped on every local change; the sheet has caught up once syncedVersion reaches it
+    @Column(columnDefinition = "integer not null default 0")
+    private int localVersion;
+
+    @Column(updatable = false, columnDefinition = "integer not null default 0")
+    private int syncedVersion;
+
+    public void touch() {
+        localVersion++;
+    }
+
+    public boolean isSheetDirty() {
+        return localVersion != syncedVersion;
+    }
+
+    public List<Object> toSheetRow() {
+        List<Object> row = new ArrayList<>(7);
+        row.add(expenseDate != null ? expenseDate.toString() : "");
+        row.add(item != null ? item : "");
+        row.add(amount != null ? amount : "");
+        row.add(currency != null ? currency : "");
+        row.add(merchant != null ? merchant : "");
+        row.add(category != null ? category : "");
+        row.add(id != null ? id.toString() : "");
+        return row;
+    }
+
+    /**
+     * Copies the values of a raw sheet row (Date, Item, Amount, Currency, Merchant, Category) onto this expense.
+     */
+    public void applySheetRow(List<Object> row) {
+        this.expenseDate = parseDate(cell(row, 0));
+        this.item = cell(row, 1);
+        this.amount = parseAmount(cell(row, 2));
+        this.currency = cell(row, 3);
+        this.merchant = cell(row, 4);
+        this.category = cell(row, 5);
+    }
+
+    public boolean matchesSheetRow(List<Object> row) {
+        Expense other = new Expense();
+        other.applySheetRow(row);
+        return Objects.equals(expenseDate, other.expenseDate)
+                && Objects.equals(item, other.item)
+                && Objects.equals(amount, other.amount)
+                && Objects.equals(currency, other.currency)
+                && Objects.equals(merchant, other.merchant)
+                && Objects.equals(category, other.category);
+    }
+
+    public static boolean isBlankSheetRow(List<Object> row) {
+        if (row == null) return true;
+        for (int i = 0; i < row.size() && i < ID_COLUMN; i++) {
+            Object cell = row.get(i);
+            if (cell != null && !cell.toString().isBlank()) return false;
+        }
+        return true;
+    }
+
+    // The expense id written to the row by an append, null for rows typed in by hand
+    public static Long sheetRowId(List<Object> row) {
+        return row == null || row.size() <= ID_COLUMN ? null : parseId(row.get(ID_COLUMN));
+    }
+
+    public static Long parseId(Object cell) {
+        if (cell == null || cell.toString().isBlank()) return null;
+        try { return Long.parseLong(cell.toString().trim()); } catch (Exception e) { return null; }
+    }
+
+    private static String cell(List<Object> row, int index) {
+        if (row == null || row.size() <= index || row.get(index) == null) return null;
+        String value = row.get(index).toString();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static LocalDate parseDate(String value) {
+        if (value == null) return null;
+        try { return LocalDate.parse(value); } catch (Exception e) { return null; }
+    }
+
+    private static Double parseAmount(String value) {
+        if (value == null) return null;
+        try { return Double.parseDouble(value); } catch (Exception e) { return null; }
+    }
+}
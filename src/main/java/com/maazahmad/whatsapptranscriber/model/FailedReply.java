@@ -0,0 +1,40 @@
+package com.maazahmad.whatsapptranscriber.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * A WhatsApp reply that could not be delivered (non-retryable error or retries exhausted), kept so
+ * it can be inspected and re-sent by hand.
+ */
+@Entity
+@Table(name = "dead_letter_replies", indexes = @Index(name = "idx_dead_letter_replies_recipient", columnList = "recipient"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FailedReply {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String recipient;
+
+    // WhatsApp caps text messages at 4096 characters
+    @Column(nullable = false, length = 4096)
+    private String body;
+
+    // Graph API error code when Meta sent one, otherwise the HTTP status or "io"
+    private String failureCode;
+
+    @Column(length = 1024)
+    private String error;
+
+    private int attempts;
+
+    @Column(nullable = false)
+    private Instant failedAt;
+}
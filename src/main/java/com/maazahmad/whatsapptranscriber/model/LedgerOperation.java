@@ -0,0 +1,55 @@
+package com.maazahmad.whatsapptranscriber.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * One entry in a ledger's undo/redo journal. Rows are never removed; undo and redo only move
+ * {@code status}. {@code beforeRow}/{@code afterRow} hold the expense's sheet values (JSON) around
+ * the change, so either side can be restored without reading the sheet. Operations sharing a
+ * {@code batchId} (several expenses from one message) are undone and redone together.
+ */
+@Entity
+@Table(name = "ledger_operations", indexes = @Index(name = "idx_ledger_operations_spreadsheet", columnList = "spreadsheetId, status"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LedgerOperation {
+
+    public enum Type { LOG, EDIT }
+
+    public enum Status { APPLIED, UNDONE, DISCARDED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String spreadsheetId;
+
+    // Re-pointed at the new row when an undone LOG is redone
+    private Long expenseId;
+
+    // Null for single-expense changes
+    private String batchId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Type type;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    @Column(length = 2048)
+    private String beforeRow;
+
+    @Column(length = 2048)
+    private String afterRow;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+}
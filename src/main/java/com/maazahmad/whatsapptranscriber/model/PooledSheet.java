@@ -0,0 +1,31 @@
+package com.maazahmad.whatsapptranscriber.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * A ledger created ahead of time (headers and Analytics tab in place) waiting to be handed to a new
+ * user. {@code claimedAt} is set once it has been taken and {@code assignedAt} once it has been
+ * renamed and shared; a claim that never gets assigned is swept up by LedgerPoolService.
+ */
+@Entity
+@Table(name = "sheet_pool", indexes = @Index(name = "idx_sheet_pool_unclaimed", columnList = "claimedAt, createdAt"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PooledSheet {
+    @Id
+    private String spreadsheetId;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    private Instant claimedAt;
+
+    private String claimedBy;
+
+    private Instant assignedAt;
+}
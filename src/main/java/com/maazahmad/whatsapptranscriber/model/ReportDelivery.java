@@ -0,0 +1,42 @@
+package com.maazahmad.whatsapptranscriber.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+
+/**
+ * Claim on one user's summary within a weekly report run, so a resumed run (or a second instance)
+ * never sends it twice. Rows are dropped once the run completes.
+ * <p>
+ * Always reported as new, so saving one is a plain INSERT that fails on an existing key rather
+ * than a merge that would quietly overwrite another instance's claim.
+ */
+@Entity
+@Table(name = "report_deliveries", indexes = @Index(name = "idx_report_deliveries_run_key", columnList = "runKey"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReportDelivery implements Persistable<String> {
+    // runKey + ":" + phone number
+    @Id
+    private String deliveryKey;
+
+    @Column(nullable = false)
+    private String runKey;
+
+    @Column(nullable = false)
+    private Instant claimedAt;
+
+    @Override
+    public String getId() {
+        return deliveryKey;
+    }
+
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+}
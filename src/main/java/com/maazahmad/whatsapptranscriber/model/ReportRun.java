@@ -0,0 +1,29 @@
+package com.maazahmad.whatsapptranscriber.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Progress of one weekly report run. {@code lastUserId} is the keyset cursor of the last fully
+ * processed chunk, so a restarted run continues from there.
+ */
+@Entity
+@Table(name = "report_runs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReportRun {
+    @Id
+    private String runKey;
+
+    @Column(nullable = false)
+    private Long lastUserId;
+
+    @Column(nullable = false)
+    private Instant startedAt;
+
+    private Instant completedAt;
+}
@@ -21,4 +21,8 @@ public class User {
     private String spreadsheetId;
 
     private String email;
+
+    // Set in the same transaction that imports the ledger's existing sheet rows into the local store
+    @Column(columnDefinition = "boolean not null default false")
+    private boolean ledgerMirrored;
 }
\ No newline at end of file
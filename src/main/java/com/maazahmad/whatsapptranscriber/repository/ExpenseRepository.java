@@ -0,0 +1,51 @@
+package com.maazahmad.whatsapptranscriber.repository;
+
+import com.maazahmad.whatsapptranscriber.model.Expense;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface ExpenseRepository extends JpaRepository<Expense, Long> {
+
+    boolean existsBySpreadsheetId(String spreadsheetId);
+
+    List<Expense> findBySpreadsheetIdOrderByIdAsc(String spreadsheetId);
+
+    Optional<Expense> findFirstBySpreadsheetIdAndDeletedFalseOrderByIdDesc(String spreadsheetId);
+
+    // Rows the sheet hasn't caught up with yet (failed or interrupted syncs)
+    List<Expense> findBySheetRowIsNullAndDeletedFalse();
+
+    // Undone rows whose sheet row still has to be cleared; cleared ones are kept so redo can restore them
+    List<Expense> findByDeletedTrueAndSheetRowIsNotNull();
+
+    // Rows changed locally since their last successful push (the push failed or was never queued)
+    @Query("select e from Expense e where e.localVersion <> e.syncedVersion and e.deleted = false and e.sheetRow is not null")
+    List<Expense> findSheetDirty();
+
+    @Modifying
+    @Transactional
+    @Query("update Expense e set e.sheetRow = :sheetRow, e.syncedVersion = :version where e.id = :id")
+    void markAppended(Long id, Integer sheetRow, int version);
+
+    // Only moves forward, so a slow push can't mark a newer local change as synced
+    @Modifying
+    @Transactional
+    @Query("update Expense e set e.syncedVersion = :version where e.id = :id and e.syncedVersion < :version")
+    int markSynced(Long id, int version);
+
+    @Modifying
+    @Transactional
+    @Query("update Expense e set e.sheetRow = null where e.id = :id")
+    void clearSheetRow(Long id);
+
+    // Row removed from the sheet by hand: kept soft-deleted so the journal can still undo/redo it
+    @Modifying
+    @Transactional
+    @Query("update Expense e set e.deleted = true, e.sheetRow = null where e.id = :id")
+    void markRemovedFromSheet(Long id);
+}
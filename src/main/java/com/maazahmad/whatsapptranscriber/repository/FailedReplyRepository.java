@@ -0,0 +1,7 @@
+package com.maazahmad.whatsapptranscriber.repository;
+
+import com.maazahmad.whatsapptranscriber.model.FailedReply;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface FailedReplyRepository extends JpaRepository<FailedReply, Long> {
+}
@@ -0,0 +1,22 @@
+package com.maazahmad.whatsapptranscriber.repository;
+
+import com.maazahmad.whatsapptranscriber.model.LedgerOperation;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface LedgerOperationRepository extends JpaRepository<LedgerOperation, Long> {
+
+    boolean existsBySpreadsheetId(String spreadsheetId);
+
+    // Top of the undo stack: latest APPLIED. Top of the redo stack: oldest UNDONE.
+    Optional<LedgerOperation> findFirstBySpreadsheetIdAndStatusOrderByIdDesc(String spreadsheetId, LedgerOperation.Status status);
+
+    Optional<LedgerOperation> findFirstBySpreadsheetIdAndStatusOrderByIdAsc(String spreadsheetId, LedgerOperation.Status status);
+
+    List<LedgerOperation> findBySpreadsheetIdAndStatus(String spreadsheetId, LedgerOperation.Status status);
+
+    List<LedgerOperation> findBySpreadsheetIdAndBatchIdAndStatus(String spreadsheetId, String batchId, LedgerOperation.Status status, Sort sort);
+}
@@ -0,0 +1,24 @@
+package com.maazahmad.whatsapptranscriber.repository;
+
+import com.maazahmad.whatsapptranscriber.model.PooledSheet;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface PooledSheetRepository extends JpaRepository<PooledSheet, String> {
+
+    // FOR UPDATE SKIP LOCKED: concurrent onboardings each get a different sheet without waiting
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    Optional<PooledSheet> findFirstByClaimedAtIsNullOrderByCreatedAtAsc();
+
+    long countByClaimedAtIsNull();
+
+    List<PooledSheet> findByClaimedAtBeforeAndAssignedAtIsNull(Instant cutoff);
+}
@@ -0,0 +1,11 @@
+package com.maazahmad.whatsapptranscriber.repository;
+
+import com.maazahmad.whatsapptranscriber.model.ReportDelivery;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface ReportDeliveryRepository extends JpaRepository<ReportDelivery, String> {
+
+    @Transactional
+    void deleteByRunKey(String runKey);
+}
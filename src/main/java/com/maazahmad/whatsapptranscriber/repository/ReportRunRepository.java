@@ -0,0 +1,7 @@
+package com.maazahmad.whatsapptranscriber.repository;
+
+import com.maazahmad.whatsapptranscriber.model.ReportRun;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ReportRunRepository extends JpaRepository<ReportRun, String> {
+}
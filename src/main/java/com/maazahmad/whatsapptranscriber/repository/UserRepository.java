@@ -1,9 +1,25 @@
 package com.maazahmad.whatsapptranscriber.repository;
 
 import com.maazahmad.whatsapptranscriber.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByPhoneNumber(String phoneNumber);
+
+    // Keyset paging for batch jobs: stable under inserts and cheap at any offset
+    List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    boolean existsBySpreadsheetId(String spreadsheetId);
+
+    boolean existsBySpreadsheetIdAndLedgerMirroredTrue(String spreadsheetId);
+
+    // Claims the one-off import; a second instance blocks on the row lock and then updates nothing
+    @Modifying
+    @Query("update User u set u.ledgerMirrored = true where u.spreadsheetId = :spreadsheetId and u.ledgerMirrored = false")
+    int markLedgerMirrored(String spreadsheetId);
 }
\ No newline at end of file
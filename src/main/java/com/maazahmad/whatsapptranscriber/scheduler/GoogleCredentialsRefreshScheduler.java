@@ -0,0 +1,59 @@
+package com.maazahmad.whatsapptranscriber.scheduler;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fetches the shared Google access token at startup and renews it ahead of expiry, so neither the
+ * first request after boot nor the one that happens to cross the expiry pays for the token round trip.
+ */
+@Slf4j
+@Component
+public class GoogleCredentialsRefreshScheduler {
+
+    private final GoogleCredentials credentials;
+    private final Timer refreshTimer;
+
+    public GoogleCredentialsRefreshScheduler(GoogleCredentials credentials, MeterRegistry meterRegistry) {
+        this.credentials = credentials;
+        this.refreshTimer = Timer.builder("google.credentials.refresh")
+                .description("Time spent checking and, when due, refreshing the Google access token")
+                .register(meterRegistry);
+        Gauge.builder("google.credentials.expires.in", credentials, GoogleCredentialsRefreshScheduler::secondsToExpiry)
+                .description("Seconds until the current Google access token expires")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        refresh();
+    }
+
+    // refreshIfExpired renews once the token is inside its refresh margin, otherwise it's a no-op
+    @Scheduled(fixedDelayString = "${google.credentials.refresh-interval-ms:60000}", initialDelayString = "${google.credentials.refresh-interval-ms:60000}")
+    public void refresh() {
+        try {
+            refreshTimer.recordCallable(() -> {
+                credentials.refreshIfExpired();
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Google token refresh failed: {}", e.getMessage());
+        }
+    }
+
+    private static double secondsToExpiry(GoogleCredentials credentials) {
+        AccessToken token = credentials.getAccessToken();
+        if (token == null || token.getExpirationTime() == null) return 0;
+        return (token.getExpirationTime().getTime() - System.currentTimeMillis()) / 1000.0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.maazahmad.whatsapptranscriber.scheduler;
+
+import com.maazahmad.whatsapptranscriber.model.User;
+import com.maazahmad.whatsapptranscriber.repository.ExpenseRepository;
+import com.maazahmad.whatsapptranscriber.repository.UserRepository;
+import com.maazahmad.whatsapptranscriber.service.GoogleQuotaGovernor;
+import com.maazahmad.whatsapptranscriber.service.SheetSyncService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class LedgerReconcileScheduler {
+
+    private final UserRepository userRepository;
+    private final ExpenseRepository expenseRepository;
+    private final SheetSyncService sheetSyncService;
+    private final GoogleQuotaGovernor quotaGovernor;
+
+    // Picks up manual edits users make directly in their Google Sheet
+    @Scheduled(cron = "${ledger.reconcile.cron:0 30 3 * * *}", zone = "Asia/Karachi")
+    public void reconcileSheets() {
+        quotaGovernor.background(() -> {
+            for (User user : userRepository.findAll()) {
+                if (expenseRepository.existsBySpreadsheetId(user.getSpreadsheetId())) {
+                    sheetSyncService.reconcile(user.getSpreadsheetId());
+                }
+            }
+            return null;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${ledger.resync.interval-ms:300000}", initialDelayString = "${ledger.resync.initial-delay-ms:60000}")
+    public void resyncPending() {
+        quotaGovernor.background(() -> {
+            sheetSyncService.resyncPending();
+            return null;
+        });
+    }
+}
@@ -1,29 +1,205 @@
 package com.maazahmad.whatsapptranscriber.scheduler;
 
+import com.maazahmad.whatsapptranscriber.model.ReportDelivery;
+import com.maazahmad.whatsapptranscriber.model.ReportRun;
 import com.maazahmad.whatsapptranscriber.model.User;
+import com.maazahmad.whatsapptranscriber.repository.ReportDeliveryRepository;
+import com.maazahmad.whatsapptranscriber.repository.ReportRunRepository;
 import com.maazahmad.whatsapptranscriber.repository.UserRepository;
-import com.maazahmad.whatsapptranscriber.service.GoogleSheetsService;
-import com.maazahmad.whatsapptranscriber.service.WhatsAppService;
-import lombok.RequiredArgsConstructor;
+import com.maazahmad.whatsapptranscriber.service.GoogleQuotaGovernor;
+import com.maazahmad.whatsapptranscriber.service.LedgerService;
+import com.maazahmad.whatsapptranscriber.service.RateLimiter;
+import com.maazahmad.whatsapptranscriber.service.ReplyDispatcher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.IsoFields;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Sunday "CFO Wrap-up". Users are streamed from the DB in id-ordered chunks and each chunk is
+ * summarised concurrently under the configured WhatsApp rate; any Sheets import goes through the
+ * {@link GoogleQuotaGovernor} at background priority. The cursor is saved after every chunk and each
+ * delivery is claimed in {@code report_deliveries}, so a run interrupted by a crash or deploy
+ * resumes on startup without re-sending.
+ */
+@Slf4j
 @Component
-@RequiredArgsConstructor
 public class WeeklyReportScheduler {
 
+    private static final ZoneId REPORT_ZONE = ZoneId.of("Asia/Karachi");
+
     private final UserRepository userRepository;
-    private final GoogleSheetsService sheetsService;
-    private final WhatsAppService whatsAppService;
+    private final ReportRunRepository reportRunRepository;
+    private final LedgerService ledgerService;
+    private final ReplyDispatcher replyDispatcher;
+    private final ReportDeliveryRepository reportDeliveryRepository;
+    private final GoogleQuotaGovernor quotaGovernor;
+    private final ThreadPoolTaskExecutor reportExecutor;
+    private final ThreadPoolTaskExecutor reportRunExecutor;
+
+    private final Timer userLatency;
+    private final Counter delivered;
+    private final Counter failed;
+
+    @Value("${report.chunk-size:200}")
+    private int chunkSize;
+
+    @Value("${report.whatsapp-per-second:20}")
+    private double whatsappPerSecond;
+
+    @Value("${report.delivery-timeout:PT5M}")
+    private Duration deliveryTimeout;
+
+    public WeeklyReportScheduler(UserRepository userRepository,
+                                 ReportRunRepository reportRunRepository,
+                                 LedgerService ledgerService,
+                                 ReplyDispatcher replyDispatcher,
+                                 ReportDeliveryRepository reportDeliveryRepository,
+                                 GoogleQuotaGovernor quotaGovernor,
+                                 @Qualifier("reportExecutor") ThreadPoolTaskExecutor reportExecutor,
+                                 @Qualifier("reportRunExecutor") ThreadPoolTaskExecutor reportRunExecutor,
+                                 MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.reportRunRepository = reportRunRepository;
+        this.ledgerService = ledgerService;
+        this.replyDispatcher = replyDispatcher;
+        this.reportDeliveryRepository = reportDeliveryRepository;
+        this.quotaGovernor = quotaGovernor;
+        this.reportExecutor = reportExecutor;
+        this.reportRunExecutor = reportRunExecutor;
+
+        this.userLatency = Timer.builder("report.weekly.user.latency")
+                .description("Summary + send time per user, including rate-limit waits")
+                .register(meterRegistry);
+        this.delivered = meterRegistry.counter("report.weekly.users", "result", "sent");
+        this.failed = meterRegistry.counter("report.weekly.users", "result", "failed");
+    }
 
+    // Only hands the run off: it blocks for its whole duration and must not hold a scheduler thread
     @Scheduled(cron = "0 0 21 * * SUN", zone = "Asia/Karachi")
     public void sendWeeklySummaries() {
-        List<User> users = userRepository.findAll();
-        for (User user : users) {
-            String summary = sheetsService.calculateAnalytics(null, null, null, "7_DAYS_AGO", "TODAY", user.getSpreadsheetId());
-            whatsAppService.sendReply(user.getPhoneNumber(), "📈 *Your Weekly CFO Wrap-up*\n\n" + summary);
+        String runKey = currentRunKey();
+        reportRunExecutor.execute(() -> run(runKey));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedRun() {
+        reportRunRepository.findById(currentRunKey())
+                .filter(run -> run.getCompletedAt() == null)
+                .ifPresent(run -> {
+                    log.info("Resuming weekly report {} after user {}", run.getRunKey(), run.getLastUserId());
+                    reportRunExecutor.execute(() -> run(run.getRunKey()));
+                });
+    }
+
+    // Runs on the single reportRunExecutor thread, so runs never overlap
+    private void run(String runKey) {
+        ReportRun run = reportRunRepository.findById(runKey).orElseGet(() -> reportRunRepository.save(
+                ReportRun.builder().runKey(runKey).lastUserId(0L).startedAt(Instant.now()).build()));
+        if (run.getCompletedAt() != null) return;
+
+        RateLimiter whatsappLimiter = new RateLimiter(whatsappPerSecond);
+        long startedNanos = System.nanoTime();
+        int processed = 0;
+
+        List<User> chunk;
+        while (!(chunk = userRepository.findByIdGreaterThanOrderByIdAsc(run.getLastUserId(), PageRequest.of(0, chunkSize))).isEmpty()) {
+            CompletableFuture<?>[] sends = chunk.stream()
+                    .map(user -> CompletableFuture.runAsync(() -> sendSummary(runKey, user, whatsappLimiter), reportExecutor))
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(sends).join();
+
+            processed += chunk.size();
+            run.setLastUserId(chunk.get(chunk.size() - 1).getId());
+            reportRunRepository.save(run);
         }
+
+        run.setCompletedAt(Instant.now());
+        reportRunRepository.save(run);
+        // A completed run is never resumed, so its claims have done their job
+        reportDeliveryRepository.deleteByRunKey(runKey);
+
+        double seconds = Math.max(1e-3, (System.nanoTime() - startedNanos) / 1e9);
+        log.info("Weekly report {} finished: {} users in {}s ({} users/s)",
+                runKey, processed, String.format("%.1f", seconds), String.format("%.1f", processed / seconds));
+    }
+
+    private void sendSummary(String runKey, User user, RateLimiter whatsappLimiter) {
+        String deliveryKey = runKey + ":" + user.getPhoneNumber();
+        if (!claim(runKey, deliveryKey)) return;
+
+        long start = System.nanoTime();
+        try {
+            // Background priority: interactive users get Google quota first
+            String summary = quotaGovernor.background(() -> ledgerService.calculateAnalytics(
+                    null, null, null, "7_DAYS_AGO", "TODAY", user.getSpreadsheetId()));
+            whatsappLimiter.acquire();
+            CompletableFuture<Void> delivery = replyDispatcher.enqueue(user.getPhoneNumber(), "📈 *Your Weekly CFO Wrap-up*\n\n" + summary);
+            // A dead-lettered report is released for the next run, even if we stopped waiting for it
+            delivery.whenComplete((r, e) -> {
+                if (e != null) release(deliveryKey);
+            });
+            delivery.get(deliveryTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            delivered.increment();
+        } catch (TimeoutException e) {
+            // Still queued in the dispatcher, which delivers or releases it on its own
+            failed.increment();
+            log.warn("Weekly report for {} not delivered within {}", user.getPhoneNumber(), deliveryTimeout);
+        } catch (Exception e) {
+            // Not sent, so let a resumed run try this user again
+            release(deliveryKey);
+            failed.increment();
+            log.warn("Weekly report failed for {}: {}", user.getPhoneNumber(), e.getMessage());
+        } finally {
+            userLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Claims are always inserted, never merged (see ReportDelivery#isNew), so the primary key makes
+    // the claim atomic across instances; the existence check only skips the round trip of a failed insert
+    private boolean claim(String runKey, String deliveryKey) {
+        if (reportDeliveryRepository.existsById(deliveryKey)) return false;
+        try {
+            reportDeliveryRepository.saveAndFlush(ReportDelivery.builder()
+                    .deliveryKey(deliveryKey)
+                    .runKey(runKey)
+                    .claimedAt(Instant.now())
+                    .build());
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    private void release(String deliveryKey) {
+        try {
+            reportDeliveryRepository.deleteById(deliveryKey);
+        } catch (RuntimeException e) {
+            log.warn("Could not release weekly report claim {}: {}", deliveryKey, e.getMessage());
+        }
+    }
+
+    private static String currentRunKey() {
+        LocalDate today = LocalDate.now(REPORT_ZONE);
+        return "weekly-" + today.get(IsoFields.WEEK_BASED_YEAR) + "-W" + today.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR);
     }
 }
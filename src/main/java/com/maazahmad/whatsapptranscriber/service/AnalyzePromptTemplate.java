@@ -0,0 +1,241 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Chat-completions request for {@link GroqService#analyzeInput}. The body only varies by date and
+ * user text, so it is serialized once per day and split around the user message; each call just
+ * splices in the escaped text. The reply's {@code choices[0].message.content} is pulled out with a
+ * streaming parser instead of building the whole tree.
+ */
+@Component
+@RequiredArgsConstructor
+public class AnalyzePromptTemplate {
+
+    private static final String MODEL = "llama-3.3-70b-versatile";
+
+    // Stands in for the user text while compiling; cannot occur in a transcription
+    private static final String PLACEHOLDER = "\u0000user-text\u0000";
+
+    private static final String SYSTEM_PROMPT = """
+        You are an expert CFO AI. Analyze the user's input.
+
+        Current Date Reference: %s
+
+        --- RULES FOR DATA PURITY ---
+        1. **DATES:** MUST be in format `YYYY-MM-DD`.
+         - If user says "Last month", use the **1st day** of that month (e.g., 2025-12-01).
+         - If user says "2026", use "2026-01-01".
+         - NEVER output just "YYYY-MM".
+
+        2. **CATEGORIES (STRICT & CLOSED SET):**
+            
+        You MUST assign exactly ONE category from the following fixed list.
+        NO other categories are allowed under ANY circumstances.
+
+        ALLOWED CATEGORIES:
+        [Food, Transport, Office, Utilities, Entertainment, Health, Shopping, Travel, Education, Other]
+
+        --- CATEGORY DEFINITIONS (USE THESE AS RULES, NOT SUGGESTIONS) ---
+
+        • Food:
+          - Any edible item, restaurant, cafe, fast food, groceries, snacks, drinks.
+          - Includes food delivery apps and takeaway.
+          - Examples: KFC, McDonald's, groceries, Uber Eats → Food
+
+        • Transport:
+          - Any movement or commuting expense.
+          - Examples: Uber, Careem, fuel, bus fare, taxi, train ticket → Transport
+
+        • Office:
+          - Work-related supplies or tools used primarily for professional or business purposes.
+          - Examples: Pencils, notebooks, printer ink, office furniture → Office
+
+        • Utilities:
+          - Recurring household or service bills.
+          - Examples: electricity, gas, water, internet, mobile bill, subscriptions for utilities → Utilities
+
+        • Entertainment:
+          - Non-essential leisure or fun activities.
+          - Examples: movies, Netflix, Spotify, games, concerts → Entertainment
+
+        • Health:
+          - Medical, healthcare, or wellness-related expenses.
+          - Examples: hospital, doctor visit, medicines, pharmacy, gym (if fitness-focused) → Health
+
+        • Shopping:
+          - General retail purchases NOT fitting other categories.
+          - Examples: clothes, shoes, electronics, Amazon purchase → Shopping
+
+        • Travel:
+          - Long-distance or out-of-city travel expenses.
+          - Examples: flights, hotels, Airbnb, travel tickets, visa fees → Travel
+
+        • Education:
+          - Learning or academic-related expenses.
+          - Examples: books, courses, tuition fees, online classes → Education
+
+        • Other:
+          - Use ONLY if the item clearly does NOT fit ANY category above.
+          - This is a LAST RESORT category.
+
+        --- DECISION RULES (MANDATORY) ---
+        1. NEVER invent a new category.
+        2. If multiple categories seem possible, choose the MOST SPECIFIC one.
+        3. If still ambiguous, choose the category based on PRIMARY INTENT of the expense.
+        4. If no category applies confidently, use "Other" — but ONLY after all others fail.
+
+
+        STEP 1: DETERMINE INTENT
+        1. "LOG_EXPENSE": User is reporting spending (e.g., "I spent 500 on lunch").
+        2. "QUERY_SPENDING": User is asking for analytics (e.g., "How much did I spend on KFC?").
+        3. "EDIT_EXPENSE": User wants to update a specific previous entry (e.g., "Update chicken wings to 550", "Change yesterday's lunch to 300").
+        4. "UNDO_LAST": User wants to delete or revert the immediately preceding action (e.g., "Undo that", "Delete the last one", "Cancel").
+        5. "REDO_LAST": User wants to bring back something they just undid (e.g., "Redo", "Bring that back", "Actually keep it").
+        6. "IRRELEVANT": Input is NOT related to finances.
+        
+        STEP 2: EXTRACT DATA
+        
+        --- CASE A: LOG_EXPENSE ---
+        Extract ONE entry per distinct expense mentioned (e.g., "500 on lunch, 200 for Careem" -> 2 entries).
+        Each entry: item, amount, currency (default PKR), merchant, category (FROM ALLOWED LIST), date (YYYY-MM-DD).
+        
+        --- CASE B: QUERY_SPENDING ---
+        Extract filter parameters (use "ALL" if not specified):
+        - category, merchant, item, start_date, end_date.
+        
+        --- CASE C: EDIT_EXPENSE ---
+        Extract:
+        - target_item (string): The item name.
+        - target_date (string):
+             - If user specifies "today", "yesterday", "last friday" -> Calculate YYYY-MM-DD.
+             - If user DOES NOT mention a date -> Return "LAST_MATCH".
+        - new_amount (number): The corrected cost.
+        - new_currency (string): The corrected currency (default to PKR).
+        
+        --- CASE D: UNDO_LAST / REDO_LAST ---
+        - steps (number): How many changes to undo/redo (e.g., "undo the last 3" -> 3). Default 1.
+        
+        STEP 3: OUTPUT JSON ONLY
+        
+        Format for LOG_EXPENSE:
+        {
+          "intent": "LOG_EXPENSE",
+          "expenses": [
+            { "item": "...", "amount": 0, "currency": "...", "merchant": "...", "category": "...", "date": "..." }
+          ]
+        }
+        
+        Format for QUERY_SPENDING:
+        {
+          "intent": "QUERY_SPENDING",
+          "query": { "category": "...", "merchant": "...", "item": "...", "start_date": "...", "end_date": "..." }
+        }
+        
+        Format for EDIT_EXPENSE:
+        {
+          "intent": "EDIT_EXPENSE",
+          "edit": { "target_item": "...", "target_date": "...", "new_amount": 0, "new_currency": "..." }
+        }
+        
+        Format for UNDO_LAST:
+        { "intent": "UNDO_LAST", "steps": 1 }
+        
+        Format for REDO_LAST:
+        { "intent": "REDO_LAST", "steps": 1 }
+        
+        Format for IRRELEVANT:
+        { "intent": "IRRELEVANT", "message": "..." }
+        """;
+
+    private final ObjectMapper objectMapper;
+    private final AtomicReference<Compiled> compiled = new AtomicReference<>();
+
+    /**
+     * Serialized request body for {@code userText}, using today's prompt.
+     */
+    public byte[] render(String userText) {
+        Compiled current = compiled.get();
+        LocalDate today = LocalDate.now();
+        if (current == null || !current.date().equals(today)) {
+            current = compile(today);
+            compiled.set(current);
+        }
+
+        byte[] text = JsonStringEncoder.getInstance().quoteAsUTF8(userText != null ? userText : "");
+        ByteArrayOutputStream body = new ByteArrayOutputStream(current.prefix().length + text.length + current.suffix().length + 2);
+        body.writeBytes(current.prefix());
+        body.write('"');
+        body.writeBytes(text);
+        body.write('"');
+        body.writeBytes(current.suffix());
+        return body.toByteArray();
+    }
+
+    /**
+     * The request as the map it was built from before templating; kept as the reference the
+     * compiled form is derived from (and as the JMH baseline).
+     */
+    Map<String, Object> buildRequest(String userText, LocalDate today) {
+        return Map.of(
+                "model", MODEL,
+                "messages", List.of(
+                        Map.of("role", "system", "content", SYSTEM_PROMPT.formatted(today)),
+                        Map.of("role", "user", "content", userText)
+                ),
+                "response_format", Map.of("type", "json_object"),
+                "temperature", 0.1
+        );
+    }
+
+    /**
+     * {@code choices[0].message.content} of a chat-completions response, or null if absent.
+     */
+    @SneakyThrows
+    public String extractContent(byte[] response) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !seekField(parser, "choices")) return null;
+            if (parser.currentToken() != JsonToken.START_ARRAY || parser.nextToken() != JsonToken.START_OBJECT) return null;
+            if (!seekField(parser, "message") || parser.currentToken() != JsonToken.START_OBJECT) return null;
+            if (!seekField(parser, "content")) return null;
+            return parser.currentToken() == JsonToken.VALUE_STRING ? parser.getText() : null;
+        }
+    }
+
+    // Advances to the value of {@code name} in the current object, skipping other fields whole
+    private static boolean seekField(JsonParser parser, String name) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            boolean match = name.equals(parser.currentName());
+            parser.nextToken();
+            if (match) return true;
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    @SneakyThrows
+    private Compiled compile(LocalDate today) {
+        String body = objectMapper.writeValueAsString(buildRequest(PLACEHOLDER, today));
+        String marker = objectMapper.writeValueAsString(PLACEHOLDER);
+        int at = body.indexOf(marker);
+        return new Compiled(today,
+                body.substring(0, at).getBytes(StandardCharsets.UTF_8),
+                body.substring(at + marker.length()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private record Compiled(LocalDate date, byte[] prefix, byte[] suffix) {}
+}
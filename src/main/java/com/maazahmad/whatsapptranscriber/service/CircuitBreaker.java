@@ -0,0 +1,123 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+
+/**
+ * Count-based circuit breaker. It opens when at least {@code failureRateThreshold} of the last
+ * {@code windowSize} calls failed (once {@code minimumCalls} have been seen), rejects everything
+ * for {@code openDuration}, then lets a single trial call through: success closes it, failure
+ * re-opens it.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final boolean[] outcomes;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int recorded;
+    private int next;
+    private int failures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration) {
+        if (windowSize <= 0) throw new IllegalArgumentException("windowSize must be positive");
+        this.name = name;
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Takes permission for one call; every successful acquire must be followed by
+     * {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+     *
+     * @throws OpenException while the breaker is open (or its trial call is still running)
+     */
+    public synchronized void acquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openNanos) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialInFlight)) {
+            throw new OpenException(name);
+        }
+        if (state == State.HALF_OPEN) trialInFlight = true;
+    }
+
+    public synchronized void onSuccess() {
+        // Calls admitted before the breaker opened may still be finishing; they don't count
+        if (state == State.OPEN) return;
+        if (state == State.HALF_OPEN) {
+            reset(State.CLOSED);
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.OPEN) return;
+        if (state == State.HALF_OPEN) {
+            trip();
+            return;
+        }
+        record(true);
+        if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) trip();
+    }
+
+    // The call ended for a reason that says nothing about the endpoint's health (e.g. a 400)
+    public synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    private void record(boolean failed) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) failures--;
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failed;
+        if (failed) failures++;
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void trip() {
+        reset(State.OPEN);
+        openedAtNanos = System.nanoTime();
+        log.warn("Circuit breaker {} opened for {}", name, Duration.ofNanos(openNanos));
+    }
+
+    private void reset(State newState) {
+        state = newState;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    public static class OpenException extends RuntimeException {
+        public OpenException(String name) {
+            this(name, "circuit open");
+        }
+
+        public OpenException(String name, String reason) {
+            super(name + " is temporarily unavailable (" + reason + ")");
+        }
+    }
+}
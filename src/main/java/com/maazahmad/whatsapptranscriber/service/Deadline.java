@@ -0,0 +1,56 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import java.time.Duration;
+
+/**
+ * Time budget for one message, shared by every stage that calls out (download, Whisper, Llama).
+ * Each stage gets whatever the earlier ones left, so a slow download shortens the transcription's
+ * allowance instead of stacking a fresh timeout on top of it.
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * A deadline {@code budget} after {@code startNanos} (a {@link System#nanoTime()} reading).
+     */
+    public static Deadline startingAt(long startNanos, Duration budget) {
+        return new Deadline(startNanos + budget.toNanos());
+    }
+
+    public static Deadline after(Duration budget) {
+        return startingAt(System.nanoTime(), budget);
+    }
+
+    // For calls nobody is waiting on (background sampling)
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public long remainingNanos() {
+        return this == NONE ? Long.MAX_VALUE : Math.max(0, expiresAtNanos - System.nanoTime());
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() == 0;
+    }
+
+    /**
+     * @throws ExceededException if the budget is already spent
+     */
+    public void check(String stage) {
+        if (isExpired()) throw new ExceededException(stage);
+    }
+
+    public static class ExceededException extends RuntimeException {
+        public ExceededException(String stage) {
+            super("Deadline exceeded at " + stage);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.maazahmad.whatsapptranscriber.model.Expense;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Column-oriented, in-memory copy of one user's ledger, tuned for QUERY_SPENDING.
+ * <p>
+ * Rows are stored as parallel primitive arrays (epoch day, amount, dictionary ids for category,
+ * merchant and item) and every write also maintains running per-day, per-month and per-category
+ * totals. Queries without an item or merchant filter are answered from those rollups, so their cost depends on
+ * the number of days/months in range rather than the number of rows. Strings are lower-cased
+ * once on the way in, since all filters are case-insensitive.
+ * <p>
+ * Only rows usable for analytics (dated, with an amount, not deleted) are indexed.
+ */
+public class ExpenseIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] expenseIds = new long[INITIAL_CAPACITY];
+    private int[] epochDays = new int[INITIAL_CAPACITY];
+    private double[] amounts = new double[INITIAL_CAPACITY];
+    private int[] categoryIds = new int[INITIAL_CAPACITY];
+    private int[] merchantIds = new int[INITIAL_CAPACITY];
+    private int[] itemIds = new int[INITIAL_CAPACITY];
+    private boolean[] live = new boolean[INITIAL_CAPACITY];
+    private int size;
+    private int liveCount;
+
+    private final Map<Long, Integer> positions = new HashMap<>();
+
+    private final Dictionary categories = new Dictionary();
+    private final Dictionary merchants = new Dictionary();
+    private final Dictionary items = new Dictionary();
+
+    private final NavigableMap<Integer, Totals> daily = new TreeMap<>();
+    private final NavigableMap<Integer, Totals> monthly = new TreeMap<>();
+    private final Totals overall = new Totals();
+
+    public static ExpenseIndex of(List<Expense> expenses) {
+        ExpenseIndex index = new ExpenseIndex();
+        for (Expense expense : expenses) {
+            index.upsert(expense);
+        }
+        return index;
+    }
+
+    public synchronized void upsert(Expense expense) {
+        Integer position = expense.getId() != null ? positions.get(expense.getId()) : null;
+        if (position != null) {
+            removeAt(position);
+        }
+        if (!isIndexable(expense)) return;
+
+        ensureCapacity(size + 1);
+        int pos = size++;
+        expenseIds[pos] = expense.getId();
+        epochDays[pos] = (int) expense.getExpenseDate().toEpochDay();
+        amounts[pos] = expense.getAmount();
+        categoryIds[pos] = categories.idOf(expense.getCategory());
+        merchantIds[pos] = merchants.idOf(expense.getMerchant());
+        itemIds[pos] = items.idOf(expense.getItem());
+        live[pos] = true;
+        liveCount++;
+        positions.put(expense.getId(), pos);
+        rollup(pos, 1);
+    }
+
+    public synchronized void remove(Long expenseId) {
+        Integer position = positions.get(expenseId);
+        if (position != null) {
+            removeAt(position);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return liveCount == 0;
+    }
+
+    /**
+     * Sums matching rows. {@code startDate}/{@code endDate} are inclusive and may be null for an open range;
+     * {@code category}/{@code merchant}/{@code item} are case-insensitive "contains" filters and may be null
+     * to match everything.
+     */
+    public synchronized Result query(LocalDate startDate, LocalDate endDate, String category, String merchant, String item) {
+        int from = startDate != null ? (int) startDate.toEpochDay() : Integer.MIN_VALUE;
+        int to = endDate != null ? (int) endDate.toEpochDay() : Integer.MAX_VALUE;
+        if (from > to) return new Result(0, 0);
+
+        boolean[] categoryMatch = category != null ? categories.matching(category) : null;
+
+        if (merchant != null || item != null) {
+            return scan(from, to, categoryMatch,
+                    merchant != null ? merchants.matching(merchant) : null,
+                    item != null ? items.matching(item) : null);
+        }
+        if (startDate == null && endDate == null) {
+            return overall.sum(categoryMatch);
+        }
+        return rollupRange(from, to, categoryMatch);
+    }
+
+    /**
+     * Id of the newest row whose item is exactly {@code item} (case-insensitive), or failing that
+     * contains it as a whole word ("tea" finds "green tea", never "steak"). {@code date} may be null
+     * to match any day. Null if nothing matches.
+     */
+    public synchronized Long latestWithItem(String item, LocalDate date) {
+        int day = date != null ? (int) date.toEpochDay() : 0;
+        int exact = items.find(item);
+        if (exact >= 0) {
+            boolean[] match = new boolean[items.size()];
+            match[exact] = true;
+            Long id = latest(match, date != null, day);
+            if (id != null) return id;
+        }
+        return latest(items.matchingWord(item), date != null, day);
+    }
+
+    private Long latest(boolean[] itemMatch, boolean onDay, int day) {
+        long best = -1;
+        for (int i = 0; i < size; i++) {
+            if (!live[i] || !itemMatch[itemIds[i]]) continue;
+            if (onDay && epochDays[i] != day) continue;
+            best = Math.max(best, expenseIds[i]);
+        }
+        return best >= 0 ? best : null;
+    }
+
+    /**
+     * Rough retained size in bytes: column arrays, dictionaries, rollups and the id lookup.
+     */
+    public synchronized long estimatedBytes() {
+        long columns = (long) expenseIds.length * (8 + 4 + 8 + 4 + 4 + 4 + 1);
+        long lookup = positions.size() * 64L;
+        long rollups = (daily.size() + monthly.size() + 1L) * (64 + 12L * categories.size());
+        return columns + lookup + rollups + categories.bytes() + merchants.bytes() + items.bytes();
+    }
+
+    private Result scan(int from, int to, boolean[] categoryMatch, boolean[] merchantMatch, boolean[] itemMatch) {
+        double total = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!live[i]) continue;
+            int day = epochDays[i];
+            if (day < from || day > to) continue;
+            if (categoryMatch != null && !categoryMatch[categoryIds[i]]) continue;
+            if (merchantMatch != null && !merchantMatch[merchantIds[i]]) continue;
+            if (itemMatch != null && !itemMatch[itemIds[i]]) continue;
+            total += amounts[i];
+            count++;
+        }
+        return new Result(total, count);
+    }
+
+    // Whole months come from the monthly rollup, the ragged edges from the daily one
+    private Result rollupRange(int from, int to, boolean[] categoryMatch) {
+        Result result = new Result(0, 0);
+        if (daily.isEmpty()) return result;
+        int day = Math.max(from, daily.firstKey());
+        int last = Math.min(to, daily.lastKey());
+
+        while (day <= last) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            int monthStart = (int) date.withDayOfMonth(1).toEpochDay();
+            int monthEnd = (int) date.withDayOfMonth(date.lengthOfMonth()).toEpochDay();
+
+            if (day == monthStart && monthEnd <= last) {
+                Totals month = monthly.get(monthKey(date));
+                if (month != null) result = result.plus(month.sum(categoryMatch));
+            } else {
+                int end = Math.min(monthEnd, last);
+                for (Totals totals : daily.subMap(day, true, end, true).values()) {
+                    result = result.plus(totals.sum(categoryMatch));
+                }
+            }
+            day = monthEnd + 1;
+        }
+        return result;
+    }
+
+    private void removeAt(int pos) {
+        if (!live[pos]) return;
+        rollup(pos, -1);
+        live[pos] = false;
+        liveCount--;
+        positions.remove(expenseIds[pos]);
+        if (size > INITIAL_CAPACITY && liveCount < size / 2) {
+            compact();
+        }
+    }
+
+    private void rollup(int pos, int sign) {
+        int day = epochDays[pos];
+        int category = categoryIds[pos];
+        double amount = amounts[pos] * sign;
+
+        daily.computeIfAbsent(day, d -> new Totals()).add(category, amount, sign);
+        monthly.computeIfAbsent(monthKey(LocalDate.ofEpochDay(day)), m -> new Totals()).add(category, amount, sign);
+        overall.add(category, amount, sign);
+
+        if (sign < 0) {
+            if (daily.get(day).isEmpty()) daily.remove(day);
+            int month = monthKey(LocalDate.ofEpochDay(day));
+            if (monthly.get(month).isEmpty()) monthly.remove(month);
+        }
+    }
+
+    private void compact() {
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            if (!live[i]) continue;
+            expenseIds[next] = expenseIds[i];
+            epochDays[next] = epochDays[i];
+            amounts[next] = amounts[i];
+            categoryIds[next] = categoryIds[i];
+            merchantIds[next] = merchantIds[i];
+            itemIds[next] = itemIds[i];
+            live[next] = true;
+            positions.put(expenseIds[next], next);
+            next++;
+        }
+        Arrays.fill(live, next, size, false);
+        size = next;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= expenseIds.length) return;
+        int capacity = Math.max(needed, expenseIds.length * 2);
+        expenseIds = Arrays.copyOf(expenseIds, capacity);
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        categoryIds = Arrays.copyOf(categoryIds, capacity);
+        merchantIds = Arrays.copyOf(merchantIds, capacity);
+        itemIds = Arrays.copyOf(itemIds, capacity);
+        live = Arrays.copyOf(live, capacity);
+    }
+
+    private static boolean isIndexable(Expense expense) {
+        return expense.getId() != null && !expense.isDeleted()
+                && expense.getExpenseDate() != null && expense.getAmount() != null;
+    }
+
+    private static int monthKey(LocalDate date) {
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    public record Result(double total, int count) {
+        Result plus(Result other) {
+            return new Result(total + other.total, count + other.count);
+        }
+    }
+
+    /**
+     * Running sum and count per category id.
+     */
+    private static final class Totals {
+        private double[] sums = new double[8];
+        private int[] counts = new int[8];
+        private int rows;
+
+        void add(int category, double amount, int delta) {
+            if (category >= sums.length) {
+                int capacity = Math.max(category + 1, sums.length * 2);
+                sums = Arrays.copyOf(sums, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            sums[category] += amount;
+            counts[category] += delta;
+            rows += delta;
+        }
+
+        boolean isEmpty() {
+            return rows == 0;
+        }
+
+        Result sum(boolean[] categoryMatch) {
+            double total = 0;
+            int count = 0;
+            for (int c = 0; c < sums.length; c++) {
+                if (counts[c] == 0) continue;
+                if (categoryMatch != null && (c >= categoryMatch.length || !categoryMatch[c])) continue;
+                total += sums[c];
+                count += counts[c];
+            }
+            return new Result(total, count);
+        }
+    }
+
+    /**
+     * Maps lower-cased strings to dense ids. Null and empty values share id 0.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private long bytes;
+
+        Dictionary() {
+            idOf("");
+        }
+
+        int idOf(String value) {
+            String key = value == null ? "" : value.toLowerCase();
+            Integer id = ids.get(key);
+            if (id != null) return id;
+            int next = values.size();
+            ids.put(key, next);
+            values.add(key);
+            bytes += 56L + 2L * key.length();
+            return next;
+        }
+
+        // Id of the value, or -1 if it has never been seen
+        int find(String value) {
+            Integer id = ids.get(value == null ? "" : value.toLowerCase());
+            return id != null ? id : -1;
+        }
+
+        // Ids whose value contains the (case-insensitive) needle as a whole word
+        boolean[] matchingWord(String needle) {
+            Pattern word = Pattern.compile("(?<![\\p{L}\\p{N}])" + Pattern.quote(needle.toLowerCase()) + "(?![\\p{L}\\p{N}])");
+            boolean[] match = new boolean[values.size()];
+            for (int id = 0; id < match.length; id++) {
+                match[id] = !needle.isBlank() && word.matcher(values.get(id)).find();
+            }
+            return match;
+        }
+
+        // Ids whose value contains the (case-insensitive) needle
+        boolean[] matching(String needle) {
+            String lower = needle.toLowerCase();
+            boolean[] match = new boolean[values.size()];
+            for (int id = 0; id < match.length; id++) {
+                match[id] = values.get(id).contains(lower);
+            }
+            return match;
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        long bytes() {
+            return bytes;
+        }
+    }
+}
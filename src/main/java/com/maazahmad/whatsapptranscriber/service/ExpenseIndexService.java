@@ -0,0 +1,92 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.maazahmad.whatsapptranscriber.model.Expense;
+import com.maazahmad.whatsapptranscriber.repository.ExpenseRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Holds an {@link ExpenseIndex} per spreadsheet, built lazily from the local store and then kept
+ * current by the ledger write paths. The cache is bounded by the indexes' estimated memory, so
+ * inactive users' indexes are dropped first and rebuilt on their next query.
+ * <p>
+ * Write-path updates go through the cache's map under the same per-key lock as a build, so an
+ * update that arrives while a user's index is being built is applied once the build finishes.
+ */
+@Slf4j
+@Service
+public class ExpenseIndexService {
+
+    private final ExpenseRepository expenseRepository;
+    private final Cache<String, ExpenseIndex> indexes;
+    private final DistributionSummary builtBytes;
+
+    public ExpenseIndexService(ExpenseRepository expenseRepository,
+                               @Value("${ledger.index.max-bytes:268435456}") long maxBytes,
+                               @Value("${ledger.index.idle-ttl:PT6H}") Duration idleTtl,
+                               MeterRegistry meterRegistry) {
+        this.expenseRepository = expenseRepository;
+        this.indexes = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .<String, ExpenseIndex>weigher((spreadsheetId, index) -> (int) Math.min(Integer.MAX_VALUE, index.estimatedBytes()))
+                .expireAfterAccess(idleTtl)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, indexes, "ledger.index");
+        Gauge.builder("ledger.index.bytes", indexes, c -> c.asMap().values().stream().mapToLong(ExpenseIndex::estimatedBytes).sum())
+                .description("Estimated heap held by in-memory ledger indexes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        // Per user without a tag per user: the spread of index sizes and the current largest one
+        this.builtBytes = DistributionSummary.builder("ledger.index.user.bytes")
+                .description("Estimated heap of a user's ledger index when it is built")
+                .baseUnit("bytes")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("ledger.index.user.bytes.max", indexes, c -> c.asMap().values().stream().mapToLong(ExpenseIndex::estimatedBytes).max().orElse(0))
+                .description("Estimated heap of the largest loaded ledger index")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public ExpenseIndex get(String spreadsheetId) {
+        return indexes.get(spreadsheetId, id -> {
+            ExpenseIndex index = ExpenseIndex.of(expenseRepository.findBySpreadsheetIdOrderByIdAsc(id));
+            builtBytes.record(index.estimatedBytes());
+            log.debug("Built ledger index for {} (~{} KB)", id, index.estimatedBytes() / 1024);
+            return index;
+        });
+    }
+
+    /**
+     * Applies an insert or edit to the user's index if it is currently loaded.
+     */
+    public void onSaved(Expense expense) {
+        // Returning the index is a write, so the cache re-weighs the grown index
+        indexes.asMap().computeIfPresent(expense.getSpreadsheetId(), (id, index) -> {
+            index.upsert(expense);
+            return index;
+        });
+    }
+
+    public void onRemoved(Expense expense) {
+        indexes.asMap().computeIfPresent(expense.getSpreadsheetId(), (id, index) -> {
+            index.remove(expense.getId());
+            return index;
+        });
+    }
+
+    public void invalidate(String spreadsheetId) {
+        indexes.invalidate(spreadsheetId);
+    }
+}
@@ -0,0 +1,283 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic pre-classifier that answers the most common, unambiguous utterances ("undo that",
+ * "I spent 500 on lunch", "how much did I spend on food this month") without calling Llama.
+ * It only answers when the whole utterance matches a known shape and every field resolves
+ * cleanly (e.g. exactly one category from the closed set); anything else goes to the LLM.
+ * The JSON it returns has the same shape as {@link GroqService#analyzeInput}.
+ */
+@Slf4j
+@Service
+public class FastPathIntentClassifier {
+
+    private static final String AMOUNT = "(?<amount>\\d[\\d,]*(?:\\.\\d+)?)";
+    private static final String CURRENCY = "(?:\\s*(?<currency>rupees?|rs\\.?|pkr|dollars?|usd|euros?|eur))?";
+    private static final String TEXT = "[a-z][a-z'&\\- ]{0,40}?";
+
+    private static final Pattern UNDO = Pattern.compile(
+            "^(?:please\\s+)?(?:undo|delete|remove|cancel)" +
+            "(?:\\s+(?:that|this|it|(?:the\\s+)?last\\s+(?:one|entry|expense|log)))?(?:\\s+please)?$");
+
+    private static final Pattern REDO = Pattern.compile(
+            "^(?:please\\s+)?(?:redo|bring\\s+(?:that|it)\\s+back)(?:\\s+(?:that|this|it))?(?:\\s+please)?$");
+
+    private static final Pattern LOG = Pattern.compile(
+            "^(?:i\\s+)?(?:just\\s+)?(?:(?:spent|paid|spend)\\s+)?(?:rs\\.?\\s*|\\$\\s*)?" + AMOUNT + CURRENCY +
+            "\\s+(?:on|for)\\s+(?<item>" + TEXT + ")(?:\\s+(?:at|from)\\s+(?<merchant>" + TEXT + "))?(?:\\s+today)?$");
+
+    private static final Pattern QUERY = Pattern.compile(
+            "^how\\s+much\\s+(?:did|have)\\s+i\\s+(?:spent|spend)(?:\\s+on\\s+(?<subject>[a-z ]+?))?" +
+            "(?:\\s+(?<period>today|this\\s+week|this\\s+month|last\\s+week|last\\s+month|this\\s+year|in\\s+total|overall|so\\s+far))?$");
+
+    // Anything that implies a date other than today needs the LLM's date arithmetic
+    private static final Pattern RELATIVE_DATE = Pattern.compile(
+            "\\b(?:yesterday|tomorrow|ago|last|week|month|year|monday|tuesday|wednesday|thursday|friday|saturday|sunday|\\d{4}-\\d{2}-\\d{2})\\b");
+
+    // Several expenses in one note; commas inside numbers ("1,200") don't count
+    private static final Pattern MULTIPLE = Pattern.compile("\\band\\b|,(?!\\d)|\\bplus\\b");
+
+    // Mirrors the closed category set in the analyzeInput prompt; multi-word keys are checked first
+    private static final Map<String, String> CATEGORY_KEYWORDS = new LinkedHashMap<>();
+    private static final Set<String> CATEGORIES = Set.of(
+            "food", "transport", "office", "utilities", "entertainment", "health", "shopping", "travel", "education");
+    private static final Set<String> KNOWN_MERCHANTS = Set.of(
+            "kfc", "mcdonald's", "mcdonalds", "uber", "careem", "netflix", "spotify", "amazon", "daraz", "foodpanda", "starbucks", "indrive");
+
+    static {
+        keywords("Food", "uber eats", "fast food", "food", "lunch", "dinner", "breakfast", "snack", "snacks", "grocery", "groceries",
+                "coffee", "tea", "burger", "pizza", "kfc", "mcdonald's", "mcdonalds", "restaurant", "cafe", "biryani", "drinks",
+                "foodpanda", "chicken", "wings", "shawarma", "fries", "starbucks");
+        keywords("Transport", "bus fare", "train ticket", "uber", "careem", "indrive", "fuel", "petrol", "diesel", "bus", "taxi",
+                "rickshaw", "metro", "parking");
+        keywords("Office", "printer ink", "pencil", "pencils", "notebook", "notebooks", "stationery", "stapler");
+        keywords("Utilities", "electricity bill", "gas bill", "water bill", "mobile bill", "phone bill", "internet bill",
+                "electricity", "internet", "wifi");
+        keywords("Entertainment", "movie", "movies", "cinema", "netflix", "spotify", "game", "games", "concert");
+        keywords("Health", "hospital", "doctor", "medicine", "medicines", "pharmacy", "gym", "clinic");
+        keywords("Shopping", "clothes", "shoes", "shirt", "jeans", "electronics", "amazon", "daraz");
+        keywords("Travel", "flight", "flights", "hotel", "airbnb", "visa fee", "visa");
+        keywords("Education", "book", "books", "course", "courses", "tuition", "class", "classes", "udemy");
+    }
+
+    private final ObjectMapper objectMapper;
+    private final GroqService groqService;
+    private final ThreadPoolTaskExecutor backgroundExecutor;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${intent.fastpath.enabled:true}")
+    private boolean enabled;
+
+    // Fraction of fast-path answers double-checked against the LLM in the background
+    @Value("${intent.fastpath.sample-rate:0.02}")
+    private double sampleRate;
+
+    public FastPathIntentClassifier(ObjectMapper objectMapper,
+                                    GroqService groqService,
+                                    @Qualifier("backgroundExecutor") ThreadPoolTaskExecutor backgroundExecutor,
+                                    MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.groqService = groqService;
+        this.backgroundExecutor = backgroundExecutor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Returns the analysis JSON when the utterance can be classified with high confidence, empty otherwise.
+     */
+    public Optional<String> classify(String rawText) {
+        if (!enabled || rawText == null) return Optional.empty();
+
+        String text = normalize(rawText);
+        Optional<ObjectNode> result = classifyUndo(text)
+                .or(() -> classifyRedo(text))
+                .or(() -> classifyLog(text))
+                .or(() -> classifyQuery(text));
+
+        meterRegistry.counter("intent.classified", "path", result.isPresent() ? "fast" : "llm").increment();
+        result.ifPresent(r -> sampleAgainstLlm(rawText, r));
+        return result.map(ObjectNode::toString);
+    }
+
+    private Optional<ObjectNode> classifyUndo(String text) {
+        if (!UNDO.matcher(text).matches()) return Optional.empty();
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("intent", "UNDO_LAST");
+        return Optional.of(root);
+    }
+
+    private Optional<ObjectNode> classifyRedo(String text) {
+        if (!REDO.matcher(text).matches()) return Optional.empty();
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("intent", "REDO_LAST");
+        return Optional.of(root);
+    }
+
+    private Optional<ObjectNode> classifyLog(String text) {
+        Matcher m = LOG.matcher(text);
+        if (!m.matches() || RELATIVE_DATE.matcher(text).find() || MULTIPLE.matcher(text).find()) return Optional.empty();
+
+        String item = m.group("item").trim().replaceFirst("^(?:the|a|an|some|my)\\s+", "");
+        String merchant = m.group("merchant") != null ? m.group("merchant").trim() : null;
+        if (merchant == null && KNOWN_MERCHANTS.contains(item)) merchant = item;
+
+        Optional<String> category = categoryOf(item + (merchant != null ? " " + merchant : ""));
+        if (category.isEmpty()) return Optional.empty();
+
+        double amount;
+        try {
+            amount = Double.parseDouble(m.group("amount").replace(",", ""));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("intent", "LOG_EXPENSE");
+        ObjectNode data = root.putArray("expenses").addObject();
+        data.put("item", titleCase(item));
+        data.put("amount", amount);
+        data.put("currency", currencyOf(m.group("currency"), text));
+        data.put("merchant", merchant != null ? titleCase(merchant) : "Unknown");
+        data.put("category", category.get());
+        data.put("date", LocalDate.now().toString());
+        return Optional.of(root);
+    }
+
+    private Optional<ObjectNode> classifyQuery(String text) {
+        Matcher m = QUERY.matcher(text);
+        if (!m.matches()) return Optional.empty();
+
+        String subject = m.group("subject") != null ? m.group("subject").trim() : null;
+        // Only the category names themselves are unambiguous; merchants/items go to the LLM
+        if (subject != null && !CATEGORIES.contains(subject)) return Optional.empty();
+
+        LocalDate today = LocalDate.now();
+        LocalDate start = null;
+        LocalDate end = null;
+        String period = m.group("period") != null ? m.group("period").replaceAll("\\s+", " ") : "";
+        switch (period) {
+            case "today" -> { start = today; end = today; }
+            case "this week" -> { start = today.with(DayOfWeek.MONDAY); end = today; }
+            case "last week" -> { start = today.with(DayOfWeek.MONDAY).minusWeeks(1); end = start.plusDays(6); }
+            case "this month" -> { start = today.withDayOfMonth(1); end = today; }
+            case "last month" -> {
+                start = today.withDayOfMonth(1).minusMonths(1);
+                end = start.withDayOfMonth(start.lengthOfMonth());
+            }
+            case "this year" -> { start = today.withDayOfYear(1); end = today; }
+            default -> { }
+        }
+
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("intent", "QUERY_SPENDING");
+        ObjectNode query = root.putObject("query");
+        query.put("category", subject != null ? titleCase(subject) : null);
+        query.putNull("merchant");
+        query.putNull("item");
+        query.put("start_date", start != null ? start.toString() : null);
+        query.put("end_date", end != null ? end.toString() : null);
+        return Optional.of(root);
+    }
+
+    // Only intents are logged: the utterance and extracted fields are the user's spending data
+    private void sampleAgainstLlm(String rawText, ObjectNode fastResult) {
+        if (ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+        String intent = fastResult.path("intent").asText();
+        backgroundExecutor.execute(() -> {
+            String result;
+            try {
+                JsonNode llm = objectMapper.readTree(groqService.analyzeInput(rawText));
+                result = agrees(fastResult, llm) ? "agree" : "disagree";
+                if (result.equals("disagree")) {
+                    log.debug("Fast-path disagreement: fast={} llm={}", intent, llm.path("intent").asText());
+                }
+            } catch (Exception e) {
+                result = "error";
+                log.debug("Fast-path sample for {} failed: {}", intent, e.getClass().getSimpleName());
+            }
+            meterRegistry.counter("intent.fastpath.samples", "intent", intent, "result", result).increment();
+        });
+    }
+
+    private boolean agrees(JsonNode fast, JsonNode llm) {
+        String intent = fast.path("intent").asText();
+        if (!intent.equals(llm.path("intent").asText())) return false;
+        return switch (intent) {
+            case "LOG_EXPENSE" -> llm.path("expenses").size() == 1
+                    && fast.path("expenses").get(0).path("amount").asDouble() == llm.path("expenses").get(0).path("amount").asDouble()
+                    && fast.path("expenses").get(0).path("category").asText().equalsIgnoreCase(llm.path("expenses").get(0).path("category").asText());
+            case "QUERY_SPENDING" -> fast.path("query").path("start_date").asText().equals(llm.path("query").path("start_date").asText());
+            default -> true;
+        };
+    }
+
+    private static Optional<String> categoryOf(String phrase) {
+        String padded = " " + phrase + " ";
+        List<String> found = new ArrayList<>();
+        String remaining = padded;
+        for (Map.Entry<String, String> keyword : CATEGORY_KEYWORDS.entrySet()) {
+            String needle = " " + keyword.getKey() + " ";
+            if (remaining.contains(needle)) {
+                if (!found.contains(keyword.getValue())) found.add(keyword.getValue());
+                // Consume it so "uber eats" doesn't also count as "uber"
+                remaining = remaining.replace(needle, "  ");
+            }
+        }
+        return found.size() == 1 ? Optional.of(found.get(0)) : Optional.empty();
+    }
+
+    private static String currencyOf(String word, String text) {
+        if (word != null) {
+            if (word.startsWith("dollar") || word.equals("usd")) return "USD";
+            if (word.startsWith("euro") || word.equals("eur")) return "EUR";
+            return "PKR";
+        }
+        return text.contains("$") ? "USD" : "PKR";
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT)
+                .replaceAll("[.!?]+$", "")
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+
+    private static String titleCase(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean start = true;
+        for (char c : text.toCharArray()) {
+            sb.append(start ? Character.toUpperCase(c) : c);
+            start = c == ' ';
+        }
+        return sb.toString();
+    }
+
+    private static void keywords(String category, String... words) {
+        for (String word : words) {
+            CATEGORY_KEYWORDS.put(word, category);
+        }
+    }
+}
@@ -3,66 +3,120 @@ package com.maazahmad.whatsapptranscriber.service;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.Permission;
+import com.maazahmad.whatsapptranscriber.service.GoogleQuotaGovernor.QuotaClass;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.Collections;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class GoogleDriveService {
 
     private final Drive driveService;
     private final GoogleSheetsService googleSheetsService;
+    private final GoogleQuotaGovernor quotaGovernor;
 
     @Value("${google.drive.folder.id}")
     private String destinationFolderId;
 
     public String cloneSheetForUser(String userEmail, String phoneNumber) throws Exception {
-        System.out.println("DEBUG: Provisioning UNIQUE ledger for " + phoneNumber);
+        log.debug("Provisioning unique ledger for {}", phoneNumber);
 
-        // 1. Metadata for a fresh, uniquely named Spreadsheet
+        // 1. Fresh, uniquely named Spreadsheet
+        String newSheetId = createLedgerFile(ledgerName(phoneNumber));
+
+        // 2. Add the User as a Writer
+        try {
+            grantWriter(newSheetId, userEmail);
+        } catch (Exception e) {
+            log.warn("Could not share new ledger {} with {}: {}", newSheetId, userEmail, e.getMessage());
+        }
+
+        // 3. Initialize the clean headers
+        googleSheetsService.setupHeaders(newSheetId);
+
+        return newSheetId;
+    }
+
+    /**
+     * Creates an unassigned ledger with headers and the Analytics tab, ready for {@link #assignLedger}.
+     */
+    public String createPooledLedger() throws Exception {
+        String sheetId = createLedgerFile("SpendTrace Ledger (unassigned)");
+        try {
+            googleSheetsService.initializeLedger(sheetId);
+        } catch (Exception e) {
+            // A ledger without headers must never reach the pool
+            deleteQuietly(sheetId);
+            throw e;
+        }
+        return sheetId;
+    }
+
+    /**
+     * Hands a pooled ledger to its user: two Drive calls instead of a full clone.
+     */
+    public void assignLedger(String sheetId, String userEmail, String phoneNumber) throws Exception {
+        File rename = new File().setName(ledgerName(phoneNumber));
+        quotaGovernor.execute(QuotaClass.DRIVE_CREATE, "renameFile", () -> driveService.files().update(sheetId, rename)
+                .setSupportsAllDrives(true)
+                .execute());
+        grantWriter(sheetId, userEmail);
+    }
+
+    private String createLedgerFile(String name) throws Exception {
         File fileMetadata = new File();
-        fileMetadata.setName("SpendTrace Ledger: " + phoneNumber);
+        fileMetadata.setName(name);
         fileMetadata.setMimeType("application/vnd.google-apps.spreadsheet");
         fileMetadata.setParents(Collections.singletonList(destinationFolderId));
 
-        String newSheetId;
         try {
             // Creating a fresh file and ignoring default visibility to bypass 0GB quota
-            File newSheet = driveService.files().create(fileMetadata)
+            File newSheet = quotaGovernor.executeNonIdempotent(QuotaClass.DRIVE_CREATE, "createFile", () -> driveService.files().create(fileMetadata)
                     .setFields("id")
                     .setSupportsAllDrives(true)
                     .setIgnoreDefaultVisibility(true) 
-                    .execute();
+                    .execute());
             
-            newSheetId = newSheet.getId();
-            System.out.println("DEBUG: Creation SUCCESS. ID: " + newSheetId);
-
+            log.debug("Created ledger file {}", newSheet.getId());
+            return newSheet.getId();
         } catch (Exception e) {
-            System.err.println("DEBUG: FAILED at Step 1 (Create): " + e.getMessage());
+            log.warn("Failed to create ledger file {}: {}", name, e.getMessage());
             throw e;
         }
+    }
 
-        // 2. Add the User as a Writer
-        try {
-            Permission userPermission = new Permission()
-                    .setType("user")
-                    .setRole("writer") 
-                    .setEmailAddress(userEmail);
+    private void grantWriter(String sheetId, String userEmail) {
+        Permission userPermission = new Permission()
+                .setType("user")
+                .setRole("writer") 
+                .setEmailAddress(userEmail);
 
-            driveService.permissions().create(newSheetId, userPermission)
-                    .setSupportsAllDrives(true)
-                    .execute();
-            System.out.println("DEBUG: Permission granted to " + userEmail);
+        quotaGovernor.execute(QuotaClass.DRIVE_CREATE, "createPermission", () -> driveService.permissions().create(sheetId, userPermission)
+                .setSupportsAllDrives(true)
+                .execute());
+        log.debug("Granted writer on {} to {}", sheetId, userEmail);
+    }
+
+    public void deleteLedger(String sheetId) {
+        quotaGovernor.execute(QuotaClass.DRIVE_CREATE, "deleteFile", () -> driveService.files().delete(sheetId)
+                .setSupportsAllDrives(true)
+                .execute());
+    }
+
+    private void deleteQuietly(String sheetId) {
+        try {
+            deleteLedger(sheetId);
         } catch (Exception e) {
-            System.err.println("DEBUG: FAILED at Step 2 (Permission): " + e.getMessage());
+            log.warn("Could not delete half-initialized ledger {}: {}", sheetId, e.getMessage());
         }
+    }
 
-        // 3. Initialize the clean headers
-        googleSheetsService.setupHeaders(newSheetId);
-
-        return newSheetId;
+    private static String ledgerName(String phoneNumber) {
+        return "SpendTrace Ledger: " + phoneNumber;
     }
 }
@@ -0,0 +1,227 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.google.api.client.http.HttpResponseException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Single gate in front of every Sheets and Drive call. Each quota class has its own token bucket
+ * sized from Google's per-minute limits; interactive callers are served before background work
+ * (weekly report, nightly reconcile), which may also never dip into the reserved share of a bucket.
+ * <p>
+ * 429s and 5xx are retried with exponential backoff. A 429 additionally pauses the whole class for
+ * the Retry-After period, since every other caller would hit the same limit. Calls that are not safe
+ * to repeat go through {@link #executeNonIdempotent} and are only retried when the request certainly
+ * was not applied.
+ */
+@Slf4j
+@Service
+public class GoogleQuotaGovernor {
+
+    public enum QuotaClass { READ, WRITE, DRIVE_CREATE }
+
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    @FunctionalInterface
+    public interface GoogleCall<T> {
+        T execute() throws IOException;
+    }
+
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+    private final Map<QuotaClass, TokenBucket> buckets = new EnumMap<>(QuotaClass.class);
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+
+    public GoogleQuotaGovernor(MeterRegistry meterRegistry,
+                               @Value("${google.quota.read-per-minute:300}") double readPerMinute,
+                               @Value("${google.quota.write-per-minute:300}") double writePerMinute,
+                               @Value("${google.quota.drive-create-per-minute:60}") double driveCreatePerMinute,
+                               @Value("${google.quota.burst-seconds:10}") double burstSeconds,
+                               @Value("${google.quota.background-reserve:0.2}") double backgroundReserve,
+                               @Value("${google.quota.max-attempts:5}") int maxAttempts,
+                               @Value("${google.quota.base-backoff:PT1S}") Duration baseBackoff,
+                               @Value("${google.quota.max-backoff:PT32S}") Duration maxBackoff) {
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+
+        buckets.put(QuotaClass.READ, new TokenBucket(readPerMinute / 60, burstSeconds, backgroundReserve));
+        buckets.put(QuotaClass.WRITE, new TokenBucket(writePerMinute / 60, burstSeconds, backgroundReserve));
+        buckets.put(QuotaClass.DRIVE_CREATE, new TokenBucket(driveCreatePerMinute / 60, burstSeconds, backgroundReserve));
+    }
+
+    /**
+     * Runs {@code work} with background priority for any Google calls it makes on this thread.
+     */
+    public <T> T background(Supplier<T> work) {
+        return withPriority(Priority.BACKGROUND, work);
+    }
+
+    public <T> T withPriority(Priority priority, Supplier<T> work) {
+        Priority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        try {
+            return work.get();
+        } finally {
+            PRIORITY.set(previous);
+        }
+    }
+
+    public Priority currentPriority() {
+        return PRIORITY.get();
+    }
+
+    public <T> T execute(QuotaClass quotaClass, String operation, GoogleCall<T> call) {
+        return execute(quotaClass, operation, call, true);
+    }
+
+    /**
+     * Like {@link #execute} for calls such as appends, where a repeat after a timeout or 5xx could
+     * apply the write twice. Only 429s and failures to connect are retried; anything else is
+     * thrown so the caller's own reconciliation can settle it.
+     */
+    public <T> T executeNonIdempotent(QuotaClass quotaClass, String operation, GoogleCall<T> call) {
+        return execute(quotaClass, operation, call, false);
+    }
+
+    @SneakyThrows
+    private <T> T execute(QuotaClass quotaClass, String operation, GoogleCall<T> call, boolean idempotent) {
+        TokenBucket bucket = buckets.get(quotaClass);
+        Priority priority = PRIORITY.get();
+        Timer waitTimer = Timer.builder("google.quota.wait")
+                .description("Time spent waiting for a Google API quota token")
+                .tags("class", quotaClass.name(), "priority", priority.name())
+                .register(meterRegistry);
+
+        long backoffMillis = baseBackoff.toMillis();
+        for (int attempt = 1; ; attempt++) {
+            waitTimer.record(bucket.acquire(priority), TimeUnit.NANOSECONDS);
+            try {
+                return call.execute();
+            } catch (HttpResponseException e) {
+                int status = e.getStatusCode();
+                if (status != 429 && (status < 500 || !idempotent)) throw e;
+                if (attempt >= maxAttempts) throw e;
+
+                long delayMillis = withJitter(backoffMillis);
+                if (status == 429) {
+                    counter("google.quota.throttled", quotaClass).increment();
+                    long retryAfterMillis = retryAfterMillis(e);
+                    delayMillis = Math.max(delayMillis, retryAfterMillis);
+                    bucket.pauseFor(delayMillis);
+                }
+                retry(quotaClass, operation, attempt, delayMillis, e);
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || !idempotent && !neverSent(e)) throw e;
+                retry(quotaClass, operation, attempt, withJitter(backoffMillis), e);
+            }
+            backoffMillis = Math.min(backoffMillis * 2, maxBackoff.toMillis());
+        }
+    }
+
+    private void retry(QuotaClass quotaClass, String operation, int attempt, long delayMillis, Exception cause)
+            throws InterruptedException {
+        counter("google.quota.retries", quotaClass).increment();
+        log.warn("Google {} attempt {} failed ({}), retrying in {} ms", operation, attempt, cause.getMessage(), delayMillis);
+        Thread.sleep(delayMillis);
+    }
+
+    private static boolean neverSent(IOException e) {
+        return e instanceof ConnectException || e instanceof UnknownHostException;
+    }
+
+    private Counter counter(String name, QuotaClass quotaClass) {
+        return meterRegistry.counter(name, "class", quotaClass.name());
+    }
+
+    private static long withJitter(long backoffMillis) {
+        return backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+    }
+
+    // Google sends Retry-After as delta-seconds; anything else falls back to our own backoff
+    private static long retryAfterMillis(HttpResponseException e) {
+        String retryAfter = e.getHeaders() != null ? e.getHeaders().getFirstHeaderStringValue("Retry-After") : null;
+        if (retryAfter == null) return 0;
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException ignored) {
+            return 0;
+        }
+    }
+
+    /**
+     * Refilling token bucket. Interactive waiters block background ones; background callers also
+     * leave {@code reserve} of the burst capacity untouched.
+     */
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private final double reserved;
+
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+        private long pausedUntilNanos;
+        private int interactiveWaiting;
+
+        TokenBucket(double perSecond, double burstSeconds, double reserve) {
+            this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, perSecond * burstSeconds);
+            this.reserved = capacity * reserve;
+            this.tokens = capacity;
+        }
+
+        synchronized long acquire(Priority priority) throws InterruptedException {
+            long start = System.nanoTime();
+            boolean interactive = priority == Priority.INTERACTIVE;
+            if (interactive) interactiveWaiting++;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    refill(now);
+                    double needed = interactive ? 1 : 1 + reserved;
+                    boolean yourTurn = interactive || interactiveWaiting == 0;
+                    if (now >= pausedUntilNanos && yourTurn && tokens >= needed) {
+                        tokens -= 1;
+                        return now - start;
+                    }
+                    long waitNanos = Math.max(pausedUntilNanos - now, (long) ((needed - tokens) / tokensPerNano));
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+                }
+            } finally {
+                if (interactive) {
+                    interactiveWaiting--;
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized void pauseFor(long millis) {
+            pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+            tokens = 0;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -1,71 +1,82 @@
 package com.maazahmad.whatsapptranscriber.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.auth.http.HttpCredentialsAdapter;
-import com.google.auth.oauth2.GoogleCredentials;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.sheets.v4.Sheets;
-import com.google.api.services.sheets.v4.SheetsScopes;
+import com.google.api.services.sheets.v4.model.AppendValuesResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
 import com.google.api.services.sheets.v4.model.ClearValuesRequest;
+import com.google.api.services.sheets.v4.model.DimensionProperties;
+import com.google.api.services.sheets.v4.model.DimensionRange;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.UpdateDimensionPropertiesRequest;
 import com.google.api.services.sheets.v4.model.ValueRange;
-import jakarta.annotation.PostConstruct;
+import com.maazahmad.whatsapptranscriber.service.GoogleQuotaGovernor.QuotaClass;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
-import org.springframework.beans.factory.annotation.Value;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.GeneralSecurityException;
-import java.time.LocalDate;
-import java.util.Collections;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class GoogleSheetsService {
 
-    private final ObjectMapper objectMapper;
-    private Sheets sheetsService;
-
-    @Value("${google.credentials.path}")
-    private String credentialsPath;
+    private final GoogleQuotaGovernor quotaGovernor;
+    private final Sheets sheetsService;
 
     private static final String DEFAULT_SHEET = "Sheet1";
-
-    @PostConstruct
-    public void init() throws IOException, GeneralSecurityException {
-        try (InputStream in = new FileInputStream(credentialsPath)) {
-            GoogleCredentials credentials = GoogleCredentials.fromStream(in)
-                    .createScoped(Collections.singleton(SheetsScopes.SPREADSHEETS));
-
-            this.sheetsService = new Sheets.Builder(
-                    GoogleNetHttpTransport.newTrustedTransport(),
-                    GsonFactory.getDefaultInstance(),
-                    new HttpCredentialsAdapter(credentials))
-                    .setApplicationName("SpendTrace")
-                    .build();
-        }
-    }
+    private static final Pattern FIRST_ROW = Pattern.compile("![A-Z]+(\\d+)");
 
     public void setupHeaders(String spreadsheetId) {
         try {
-            List<Object> headers = List.of("Date", "Item", "Amount", "Currency", "Merchant", "Category");
-            ValueRange body = new ValueRange().setValues(List.of(headers));
-            sheetsService.spreadsheets().values()
-                    .update(spreadsheetId, "Sheet1!A1", body)
-                    .setValueInputOption("USER_ENTERED")
-                    .execute();
-
-            createAnalyticsSheet(spreadsheetId);
+            initializeLedger(spreadsheetId);
         } catch (Exception e) {
-            System.err.println("Failed to set headers: " + e.getMessage());
+            log.warn("Failed to set headers on {}: {}", spreadsheetId, e.getMessage());
         }
     }
 
+    /**
+     * Writes the header row, hides the expense id column and adds the Analytics tab, failing if any write fails.
+     */
+    public void initializeLedger(String spreadsheetId) throws IOException {
+        List<Object> headers = List.of("Date", "Item", "Amount", "Currency", "Merchant", "Category", "Id");
+        ValueRange body = new ValueRange().setValues(List.of(headers));
+        quotaGovernor.execute(QuotaClass.WRITE, "setupHeaders", () -> sheetsService.spreadsheets().values()
+                .update(spreadsheetId, "Sheet1!A1", body)
+                .setValueInputOption("USER_ENTERED")
+                .execute());
+
+        hideIdColumn(spreadsheetId);
+        createAnalyticsSheet(spreadsheetId);
+    }
+
+    private void hideIdColumn(String spreadsheetId) throws IOException {
+        List<Sheet> sheets = quotaGovernor.execute(QuotaClass.READ, "readSheetIds", () -> sheetsService.spreadsheets()
+                .get(spreadsheetId)
+                .setFields("sheets.properties(sheetId,title)")
+                .execute()).getSheets();
+        Integer sheetId = sheets.stream()
+                .filter(sheet -> DEFAULT_SHEET.equals(sheet.getProperties().getTitle()))
+                .map(sheet -> sheet.getProperties().getSheetId())
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No " + DEFAULT_SHEET + " in " + spreadsheetId));
+
+        UpdateDimensionPropertiesRequest hide = new UpdateDimensionPropertiesRequest()
+                .setRange(new DimensionRange().setSheetId(sheetId).setDimension("COLUMNS")
+                        .setStartIndex(6).setEndIndex(7))
+                .setProperties(new DimensionProperties().setHiddenByUser(true))
+                .setFields("hiddenByUser");
+        BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
+                .setRequests(List.of(new Request().setUpdateDimensionProperties(hide)));
+        quotaGovernor.execute(QuotaClass.WRITE, "hideIdColumn",
+                () -> sheetsService.spreadsheets().batchUpdate(spreadsheetId, request).execute());
+    }
+
     private void createAnalyticsSheet(String spreadsheetId) throws IOException {
         com.google.api.services.sheets.v4.model.AddSheetRequest addSheetRequest = new com.google.api.services.sheets.v4.model.AddSheetRequest()
                 .setProperties(new com.google.api.services.sheets.v4.model.SheetProperties().setTitle("Analytics"));
@@ -74,7 +85,8 @@ public class GoogleSheetsService {
                 .setRequests(List.of(new com.google.api.services.sheets.v4.model.Request().setAddSheet(addSheetRequest)));
     
         try {
-            sheetsService.spreadsheets().batchUpdate(spreadsheetId, batchRequest).execute();
+            quotaGovernor.execute(QuotaClass.WRITE, "addAnalyticsSheet",
+                    () -> sheetsService.spreadsheets().batchUpdate(spreadsheetId, batchRequest).execute());
         } catch (Exception e) { /* Ignore if exists */ }
 
         List<List<Object>> analyticsData = List.of(
@@ -82,110 +94,64 @@ public class GoogleSheetsService {
             List.of("=QUERY(Sheet1!A:F, \"select F, sum(C) where F is not null group by F label sum(C) ''\", 1)")
         );
 
-        sheetsService.spreadsheets().values()
+        quotaGovernor.execute(QuotaClass.WRITE, "writeAnalyticsSheet", () -> sheetsService.spreadsheets().values()
                 .update(spreadsheetId, "Analytics!A1", new ValueRange().setValues(analyticsData))
                 .setValueInputOption("USER_ENTERED")
-                .execute();
+                .execute());
     }
 
+    /**
+     * Appends the rows after the last row of the ledger and returns the 1-based row number of the first one.
+     */
     @SneakyThrows
-    public void logExpense(String jsonExpense, String spreadsheetId) {
-        JsonNode root = objectMapper.readTree(jsonExpense);
-        List<Object> rowData = List.of(
-            root.path("date").asText(LocalDate.now().toString()),
-            root.path("item").asText("Unknown"),
-            root.path("amount").asDouble(0.0),
-            root.path("currency").asText("PKR"),
-            root.path("merchant").asText("Unknown"),
-            root.path("category").asText("Uncategorized")
-        );
-
-        sheetsService.spreadsheets().values()
-                .append(spreadsheetId, DEFAULT_SHEET + "!A1", new ValueRange().setValues(List.of(rowData)))
+    public int appendRows(String spreadsheetId, List<List<Object>> rows) {
+        AppendValuesResponse response = quotaGovernor.executeNonIdempotent(QuotaClass.WRITE, "appendRows", () -> sheetsService.spreadsheets().values()
+                .append(spreadsheetId, DEFAULT_SHEET + "!A1", new ValueRange().setValues(rows))
                 .setValueInputOption("USER_ENTERED")
-                .execute();
-        System.out.println("✅ Expense logged to " + spreadsheetId);
+                .execute());
+        log.info("{} row(s) appended to {}", rows.size(), spreadsheetId);
+        return firstRowOf(response.getUpdates().getUpdatedRange());
     }
 
     @SneakyThrows
-    public List<List<Object>> readAllRows(String spreadsheetId) {
-        ValueRange response = sheetsService.spreadsheets().values()
-                .get(spreadsheetId, DEFAULT_SHEET + "!A:F")
-                .execute();
-        return response.getValues();
-    }
-
-    public String calculateAnalytics(String category, String merchant, String item, String startStr, String endStr, String spreadsheetId) {
-        List<List<Object>> rows = readAllRows(spreadsheetId);
-        if (rows == null || rows.isEmpty() || rows.size() < 2) return "⚠️ Your ledger is currently empty.";
-
-        double total = 0.0;
-        int matchCount = 0;
-        String currency = "PKR";
-
-        // Fix: Handle relative date strings
-        LocalDate startDate = "7_DAYS_AGO".equalsIgnoreCase(startStr) ? LocalDate.now().minusDays(7) : parseDateSafely(startStr);
-        LocalDate endDate = "TODAY".equalsIgnoreCase(endStr) ? LocalDate.now() : parseDateSafely(endStr);
-
-        for (int i = 1; i < rows.size(); i++) {
-            List<Object> row = rows.get(i);
-            if (row.size() < 4) continue;
-            try {
-                LocalDate rowDate = LocalDate.parse(row.get(0).toString());
-                String rowItem = row.get(1).toString().toLowerCase();
-                double rowAmount = Double.parseDouble(row.get(2).toString());
-                String rowCategory = row.size() > 5 ? row.get(5).toString().toLowerCase() : "";
-
-                if (startDate != null && rowDate.isBefore(startDate)) continue;
-                if (endDate != null && rowDate.isAfter(endDate)) continue;
-                if (isFilterActive(category) && !rowCategory.contains(category.toLowerCase())) continue;
-                if (isFilterActive(item) && !rowItem.contains(item.toLowerCase())) continue;
-
-                total += rowAmount;
-                matchCount++;
-            } catch (Exception e) {}
-        }
-        return matchCount == 0 ? "🔍 No records match." : String.format("📊 *Spending Report*\nTotal: *%.2f %s*\nTransactions: %d", total, currency, matchCount);
+    public void updateRow(String spreadsheetId, int rowNumber, List<Object> rowData) {
+        String range = DEFAULT_SHEET + "!A" + rowNumber + ":G" + rowNumber;
+        quotaGovernor.execute(QuotaClass.WRITE, "updateRow", () -> sheetsService.spreadsheets().values()
+                .update(spreadsheetId, range, new ValueRange().setValues(List.of(rowData)))
+                .setValueInputOption("USER_ENTERED")
+                .execute());
     }
 
-    private LocalDate parseDateSafely(String dateStr) {
-        if (dateStr == null || dateStr.isEmpty() || "null".equalsIgnoreCase(dateStr)) return null;
-        try { return LocalDate.parse(dateStr); } catch (Exception e) { return null; }
+    @SneakyThrows
+    public void clearRow(String spreadsheetId, int rowNumber) {
+        String range = DEFAULT_SHEET + "!A" + rowNumber + ":G" + rowNumber;
+        quotaGovernor.execute(QuotaClass.WRITE, "clearRow",
+                () -> sheetsService.spreadsheets().values().clear(spreadsheetId, range, new ClearValuesRequest()).execute());
     }
 
-    private boolean isFilterActive(String filter) {
-        return filter != null && !filter.isEmpty() && !"null".equalsIgnoreCase(filter);
+    @SneakyThrows
+    public List<List<Object>> readAllRows(String spreadsheetId) {
+        ValueRange response = quotaGovernor.execute(QuotaClass.READ, "readAllRows", () -> sheetsService.spreadsheets().values()
+                .get(spreadsheetId, DEFAULT_SHEET + "!A:G")
+                .execute());
+        return response.getValues();
     }
 
+    /**
+     * Reads only the hidden expense id column; index {@code i} of the result is row {@code i + 1}.
+     */
     @SneakyThrows
-    public String editExpense(String targetItem, String targetDateStr, double newAmount, String newCurrency, String spreadsheetId) {
-        List<List<Object>> rows = readAllRows(spreadsheetId);
-        if (rows == null || rows.isEmpty()) return "⚠️ Ledger is empty.";
-        String searchItem = targetItem.toLowerCase();
-        boolean matchAnyDate = "LAST_MATCH".equalsIgnoreCase(targetDateStr);
-        LocalDate searchDate = matchAnyDate ? null : LocalDate.parse(targetDateStr);
-
-        for (int i = rows.size() - 1; i >= 0; i--) {
-            List<Object> row = rows.get(i);
-            if (row.size() < 4) continue;
-            try {
-                if (row.get(1).toString().toLowerCase().contains(searchItem) && 
-                   (matchAnyDate || LocalDate.parse(row.get(0).toString()).isEqual(searchDate))) {
-                    String range = DEFAULT_SHEET + "!C" + (i + 1) + ":D" + (i + 1);
-                    sheetsService.spreadsheets().values().update(spreadsheetId, range, new ValueRange().setValues(List.of(List.of(newAmount, newCurrency))))
-                            .setValueInputOption("USER_ENTERED").execute();
-                    return String.format("✅ Updated **%s** to **%.2f %s**.", targetItem, newAmount, newCurrency);
-                }
-            } catch (Exception e) {}
-        }
-        return "❌ Expense not found.";
+    public List<List<Object>> readIdColumn(String spreadsheetId) {
+        ValueRange response = quotaGovernor.execute(QuotaClass.READ, "readIdColumn", () -> sheetsService.spreadsheets().values()
+                .get(spreadsheetId, DEFAULT_SHEET + "!G:G")
+                .execute());
+        return response.getValues();
     }
 
-    @SneakyThrows
-    public String undoLastLog(String spreadsheetId) {
-        List<List<Object>> rows = readAllRows(spreadsheetId);
-        if (rows == null || rows.isEmpty()) return "⚠️ Nothing to undo.";
-        sheetsService.spreadsheets().values().clear(spreadsheetId, DEFAULT_SHEET + "!A" + rows.size() + ":F" + rows.size(), new ClearValuesRequest()).execute();
-        return "✅ Last entry deleted.";
+    // "Sheet1!A12:F14" -> 12
+    private int firstRowOf(String updatedRange) {
+        Matcher matcher = FIRST_ROW.matcher(updatedRange);
+        if (!matcher.find()) throw new IllegalStateException("Unexpected append range: " + updatedRange);
+        return Integer.parseInt(matcher.group(1));
     }
 }
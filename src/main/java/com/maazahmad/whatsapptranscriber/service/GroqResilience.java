@@ -0,0 +1,275 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Wraps every Groq call. Each endpoint has its own circuit breaker so a Whisper brownout doesn't
+ * take Llama down with it. Attempts run on {@code groqExecutor} and the caller waits no longer than
+ * the message's {@link Deadline}. 429s, 5xx and I/O errors are retried with jittered exponential
+ * backoff while the budget allows.
+ * <p>
+ * Hedged calls send a second identical request when the first has been outstanding longer than the
+ * endpoint's recent p95, and take whichever answers first.
+ */
+@Slf4j
+@Service
+public class GroqResilience {
+
+    public enum Endpoint { TRANSCRIBE, ANALYZE }
+
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private final Map<Endpoint, CircuitBreaker> breakers = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Timer> latencies = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Duration> attemptTimeouts = new EnumMap<>(Endpoint.class);
+    private final ThreadPoolTaskExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+    private final boolean hedgeEnabled;
+    private final Duration hedgeMinDelay;
+
+    public GroqResilience(@Qualifier("groqExecutor") ThreadPoolTaskExecutor executor,
+                          MeterRegistry meterRegistry,
+                          @Value("${groq.resilience.max-attempts:3}") int maxAttempts,
+                          @Value("${groq.resilience.base-backoff:PT0.5S}") Duration baseBackoff,
+                          @Value("${groq.resilience.max-backoff:PT8S}") Duration maxBackoff,
+                          @Value("${groq.breaker.window-size:20}") int windowSize,
+                          @Value("${groq.breaker.minimum-calls:10}") int minimumCalls,
+                          @Value("${groq.breaker.failure-rate:0.5}") double failureRate,
+                          @Value("${groq.breaker.open-duration:PT30S}") Duration openDuration,
+                          @Value("${groq.breaker.attempt-timeout.transcribe:PT30S}") Duration transcribeAttemptTimeout,
+                          @Value("${groq.breaker.attempt-timeout.analyze:PT10S}") Duration analyzeAttemptTimeout,
+                          @Value("${groq.hedge.enabled:true}") boolean hedgeEnabled,
+                          @Value("${groq.hedge.min-delay:PT1S}") Duration hedgeMinDelay) {
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeMinDelay = hedgeMinDelay;
+        attemptTimeouts.put(Endpoint.TRANSCRIBE, transcribeAttemptTimeout);
+        attemptTimeouts.put(Endpoint.ANALYZE, analyzeAttemptTimeout);
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            String tag = tag(endpoint);
+            CircuitBreaker breaker = new CircuitBreaker("groq-" + tag, windowSize, minimumCalls, failureRate, openDuration);
+            breakers.put(endpoint, breaker);
+            Gauge.builder("groq.breaker.state", breaker, b -> b.state().ordinal())
+                    .description("0 = closed, 1 = open, 2 = half-open")
+                    .tag("endpoint", tag)
+                    .register(meterRegistry);
+            latencies.put(endpoint, Timer.builder("groq.call")
+                    .description("Latency of successful Groq requests (drives the hedge delay)")
+                    .tag("endpoint", tag)
+                    .publishPercentiles(HEDGE_PERCENTILE)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Runs {@code request} under the endpoint's breaker, the deadline and the retry policy.
+     *
+     * @throws CircuitBreaker.OpenException if the endpoint's breaker is open or {@code groqExecutor} is full
+     * @throws Deadline.ExceededException   if the budget ran out first
+     */
+    @SneakyThrows
+    public <T> T call(Endpoint endpoint, Deadline deadline, boolean hedged, Supplier<T> request) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        long backoffMillis = baseBackoff.toMillis();
+        for (int attempt = 1; ; attempt++) {
+            checkDeadline(endpoint, deadline);
+            try {
+                breaker.acquire();
+            } catch (CircuitBreaker.OpenException e) {
+                counter("groq.breaker.rejected", endpoint).increment();
+                throw e;
+            }
+
+            // Whatever ends the attempt, a HALF_OPEN trial permit must be given back
+            boolean settled = false;
+            long attemptStart = System.nanoTime();
+            try {
+                T result = hedged && hedgeEnabled ? hedged(endpoint, deadline, request) : single(endpoint, deadline, request);
+                breaker.onSuccess();
+                settled = true;
+                return result;
+            } catch (Deadline.ExceededException e) {
+                // Only an attempt that outran its own timeout says anything about Groq; a budget already
+                // spent in the queue or on the download is ignored by the breaker
+                if (System.nanoTime() - attemptStart >= attemptTimeouts.get(endpoint).toNanos()) {
+                    breaker.onFailure();
+                    settled = true;
+                }
+                counter("groq.deadline.exceeded", endpoint).increment();
+                throw e;
+            } catch (RejectedExecutionException e) {
+                // No worker free to send it: the caller gets the same answer as for an open breaker
+                counter("groq.breaker.rejected", endpoint).increment();
+                throw new CircuitBreaker.OpenException(breaker.name(), "no free worker");
+            } catch (RuntimeException e) {
+                if (!isRetryable(e)) throw e;
+                breaker.onFailure();
+                settled = true;
+                long delayMillis = withJitter(backoffMillis);
+                if (attempt >= maxAttempts || TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadline.remainingNanos()) throw e;
+
+                counter("groq.retries", endpoint).increment();
+                log.warn("Groq {} attempt {} failed ({}), retrying in {} ms", tag(endpoint), attempt, e.getMessage(), delayMillis);
+                Thread.sleep(delayMillis);
+            } finally {
+                if (!settled) breaker.onIgnored();
+            }
+            backoffMillis = Math.min(backoffMillis * 2, maxBackoff.toMillis());
+        }
+    }
+
+    public CircuitBreaker.State breakerState(Endpoint endpoint) {
+        return breakers.get(endpoint).state();
+    }
+
+    private <T> T single(Endpoint endpoint, Deadline deadline, Supplier<T> request) {
+        return await(endpoint, deadline, submit(endpoint, request));
+    }
+
+    @SneakyThrows
+    private <T> T hedged(Endpoint endpoint, Deadline deadline, Supplier<T> request) {
+        CompletableFuture<T> primary = submit(endpoint, request);
+        long hedgeDelayNanos = hedgeDelayNanos(endpoint);
+        if (hedgeDelayNanos >= deadline.remainingNanos()) return await(endpoint, deadline, primary);
+
+        try {
+            return primary.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException slow) {
+            // Fall through and hedge
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+
+        CompletableFuture<T> hedge;
+        try {
+            hedge = submit(endpoint, request);
+        } catch (RejectedExecutionException busy) {
+            return await(endpoint, deadline, primary);
+        }
+        counter("groq.hedge.sent", endpoint).increment();
+
+        try {
+            return await(endpoint, deadline, firstSuccessful(endpoint, primary, hedge));
+        } finally {
+            primary.cancel(true);
+            hedge.cancel(true);
+        }
+    }
+
+    // Completes with the first success, or with the last failure once both have failed
+    private <T> CompletableFuture<T> firstSuccessful(Endpoint endpoint, CompletableFuture<T> primary, CompletableFuture<T> hedge) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        Map.of("primary", primary, "hedge", hedge).forEach((label, future) -> future.whenComplete((value, error) -> {
+            if (error == null) {
+                if (winner.complete(value)) {
+                    meterRegistry.counter("groq.hedge.won", "endpoint", tag(endpoint), "winner", label).increment();
+                }
+            } else if (failed.incrementAndGet() == 2) {
+                winner.completeExceptionally(error);
+            }
+        }));
+        return winner;
+    }
+
+    private <T> CompletableFuture<T> submit(Endpoint endpoint, Supplier<T> request) {
+        Timer latency = latencies.get(endpoint);
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            T result = request.get();
+            latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        }, executor);
+    }
+
+    /**
+     * Waits for {@code future} within the deadline. On timeout the caller is released; the request
+     * itself keeps its pooled thread until the HTTP read timeout ends it.
+     */
+    @SneakyThrows
+    private <T> T await(Endpoint endpoint, Deadline deadline, CompletableFuture<T> future) {
+        try {
+            return future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new Deadline.ExceededException("groq " + tag(endpoint));
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private long hedgeDelayNanos(Endpoint endpoint) {
+        long p95 = 0;
+        for (ValueAtPercentile value : latencies.get(endpoint).takeSnapshot().percentileValues()) {
+            if (value.percentile() == HEDGE_PERCENTILE) p95 = (long) value.value(TimeUnit.NANOSECONDS);
+        }
+        return Math.max(p95, hedgeMinDelay.toNanos());
+    }
+
+    private void checkDeadline(Endpoint endpoint, Deadline deadline) {
+        if (deadline.isExpired()) {
+            counter("groq.deadline.exceeded", endpoint).increment();
+            deadline.check("groq " + tag(endpoint));
+        }
+    }
+
+    private static boolean isRetryable(RuntimeException e) {
+        return e instanceof HttpServerErrorException
+                || e instanceof HttpClientErrorException.TooManyRequests
+                || e instanceof ResourceAccessException;
+    }
+
+    private static Throwable unwrap(ExecutionException e) {
+        return e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static long withJitter(long backoffMillis) {
+        return backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+    }
+
+    private Counter counter(String name, Endpoint endpoint) {
+        return meterRegistry.counter(name, "endpoint", tag(endpoint));
+    }
+
+    private static String tag(Endpoint endpoint) {
+        return endpoint.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -4,24 +4,41 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.LocalDate;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class GroqService {
 
+    @Qualifier("groqRestTemplate")
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final TranscriptionCache transcriptionCache;
+    private final AnalyzePromptTemplate promptTemplate;
+    private final GroqResilience resilience;
+    @Qualifier("transcriptionChunkExecutor")
+    private final ThreadPoolTaskExecutor chunkExecutor;
 
     @Value("${groq.api.url}")
     private String groqAudioUrl;
@@ -29,42 +46,129 @@ public class GroqService {
     @Value("${groq.api.key}")
     private String groqApiKey;
 
-    // Hardcoded Chat URL for Llama-3 calls
-    private static final String GROQ_CHAT_URL = "https://api.groq.com/openai/v1/chat/completions";
+    // Chat URL for Llama-3 calls
+    @Value("${groq.chat.url:https://api.groq.com/openai/v1/chat/completions}")
+    private String groqChatUrl;
+
+    // Long voice notes are split and transcribed in parallel
+    @Value("${transcription.chunking.enabled:true}")
+    private boolean chunkingEnabled;
+
+    @Value("${transcription.chunking.min-duration:PT90S}")
+    private Duration chunkingMinDuration;
+
+    // Opus voice doesn't go below ~6 kbps, so smaller files can't be long enough to split
+    @Value("${transcription.chunking.min-bytes-per-second:750}")
+    private long chunkingMinBytesPerSecond;
+
+    @Value("${transcription.chunking.chunk-duration:PT45S}")
+    private Duration chunkDuration;
+
+    @Value("${transcription.chunking.silence-window:PT5S}")
+    private Duration silenceWindow;
+
+    @Value("${transcription.chunking.parallelism:4}")
+    private int chunkParallelism;
+
+    private static final String WHISPER_MODEL = "whisper-large-v3";
 
     /**
-     * Step 1: Transcribe Audio (Whisper) with Retry Logic
+     * Step 1: Transcribe Audio (Whisper) within the message's deadline. Identical audio is served from the cache.
+     */
+    public String transcribe(SpooledMedia audio, Deadline deadline) {
+        Optional<String> cached = transcriptionCache.get(audio.sha256(), WHISPER_MODEL, audio.size());
+        if (cached.isPresent()) {
+            log.debug("Transcription cache hit for {}", audio.sha256());
+            return cached.get();
+        }
+
+        List<OggOpusSplitter.Chunk> chunks = split(audio);
+        // Not hedged: a second upload of the whole note costs more than the tail it would save
+        String text = chunks.isEmpty()
+                ? resilience.call(GroqResilience.Endpoint.TRANSCRIBE, deadline, false, () -> attemptTranscribe(audio.asResource("audio.ogg")))
+                : transcribeChunks(audio, chunks, deadline);
+        transcriptionCache.put(audio.sha256(), WHISPER_MODEL, audio.size(), text);
+        return text;
+    }
+
+    private List<OggOpusSplitter.Chunk> split(SpooledMedia audio) {
+        if (!chunkingEnabled) return List.of();
+        // Too small to last min-duration even at the lowest voice bitrate, so not worth parsing
+        if (audio.size() < chunkingMinDuration.toSeconds() * chunkingMinBytesPerSecond) return List.of();
+        try {
+            return audio.read(data -> OggOpusSplitter.split(data, chunkingMinDuration, chunkDuration, silenceWindow));
+        } catch (RuntimeException e) {
+            log.warn("Could not split {}, sending it whole: {}", audio.sha256(), e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Transcribes the chunks with up to {@code parallelism} in flight and joins the text in order.
+     * Each chunk is retried on its own; if one still fails the rest are abandoned.
      */
     @SneakyThrows
-    public String transcribe(byte[] audioData) {
-        int maxRetries = 3;
-        for (int i = 0; i < maxRetries; i++) {
-            try {
-                return attemptTranscribe(audioData);
-            } catch (Exception e) {
-                System.err.println("Transcription attempt " + (i + 1) + " failed: " + e.getMessage());
-                if (i == maxRetries - 1) {
-                    throw e; // Crash if all retries fail
+    private String transcribeChunks(SpooledMedia audio, List<OggOpusSplitter.Chunk> chunks, Deadline deadline) {
+        log.debug("Transcribing {} chunks in parallel", chunks.size());
+        String[] parts = new String[chunks.size()];
+        AtomicInteger next = new AtomicInteger();
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[Math.min(chunkParallelism, chunks.size())];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = CompletableFuture.runAsync(() -> {
+                for (int i; (i = next.getAndIncrement()) < chunks.size(); ) {
+                    Resource chunk = chunkResource(audio, chunks.get(i), i);
+                    try {
+                        parts[i] = resilience.call(GroqResilience.Endpoint.TRANSCRIBE, deadline, false, () -> attemptTranscribe(chunk));
+                    } catch (Throwable e) {
+                        next.set(chunks.size());
+                        throw e;
+                    }
                 }
-                Thread.sleep(1000); // Wait 1 second before retrying
-            }
+            }, chunkExecutor);
         }
-        return null; // Should not be reached
+
+        try {
+            CompletableFuture.allOf(workers).join();
+        } catch (CompletionException e) {
+            throw e.getCause() != null ? e.getCause() : e;
+        }
+        return Arrays.stream(parts).map(String::trim).filter(part -> !part.isEmpty()).collect(Collectors.joining(" "));
     }
 
-    private String attemptTranscribe(byte[] audioData) {
+    // Streams the chunk out of the spooled note on every attempt instead of holding a copy
+    private static Resource chunkResource(SpooledMedia audio, OggOpusSplitter.Chunk chunk, int index) {
+        return new AbstractResource() {
+            @Override
+            public InputStream getInputStream() {
+                return audio.openStream(chunk::open);
+            }
+
+            @Override
+            public long contentLength() {
+                return chunk.length();
+            }
+
+            @Override
+            public String getFilename() {
+                return "audio-part" + index + ".ogg";
+            }
+
+            @Override
+            public String getDescription() {
+                return "Audio chunk [" + index + ", " + chunk.length() + " bytes]";
+            }
+        };
+    }
+
+    private String attemptTranscribe(Resource audio) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.MULTIPART_FORM_DATA);
         headers.setBearerAuth(groqApiKey);
 
         MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-        body.add("file", new ByteArrayResource(audioData) {
-            @Override
-            public String getFilename() {
-                return "audio.ogg";
-            }
-        });
-        body.add("model", "whisper-large-v3");
+        // Re-reads the spooled copy (or chunk) on every attempt; nothing is re-downloaded
+        body.add("file", audio);
+        body.add("model", WHISPER_MODEL);
         body.add("response_format", "json");
 
         HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
@@ -84,160 +188,31 @@ public class GroqService {
     }
 
     /**
-     * MASTER BRAIN: Analyzes Intent (Log vs Query vs Edit vs Undo)
+     * MASTER BRAIN: Analyzes Intent (Log vs Query vs Edit vs Undo/Redo). Slow calls are hedged.
      */
-    @SneakyThrows
+    public String analyzeInput(String rawText, Deadline deadline) {
+        return resilience.call(GroqResilience.Endpoint.ANALYZE, deadline, true, () -> attemptAnalyze(rawText));
+    }
+
+    // For callers nobody is waiting on (fast-path sampling): no deadline, no hedge
     public String analyzeInput(String rawText) {
+        return resilience.call(GroqResilience.Endpoint.ANALYZE, Deadline.none(), false, () -> attemptAnalyze(rawText));
+    }
+
+    private String attemptAnalyze(String rawText) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setBearerAuth(groqApiKey);
 
-        String today = LocalDate.now().toString();
-
-        String systemPrompt = """
-            You are an expert CFO AI. Analyze the user's input.
-
-            Current Date Reference: %s
-
-            --- RULES FOR DATA PURITY ---
-            1. **DATES:** MUST be in format `YYYY-MM-DD`.
-             - If user says "Last month", use the **1st day** of that month (e.g., 2025-12-01).
-             - If user says "2026", use "2026-01-01".
-             - NEVER output just "YYYY-MM".
-
-            2. **CATEGORIES (STRICT & CLOSED SET):**
-                
-            You MUST assign exactly ONE category from the following fixed list.
-            NO other categories are allowed under ANY circumstances.
-
-            ALLOWED CATEGORIES:
-            [Food, Transport, Office, Utilities, Entertainment, Health, Shopping, Travel, Education, Other]
-
-            --- CATEGORY DEFINITIONS (USE THESE AS RULES, NOT SUGGESTIONS) ---
-
-            • Food:
-              - Any edible item, restaurant, cafe, fast food, groceries, snacks, drinks.
-              - Includes food delivery apps and takeaway.
-              - Examples: KFC, McDonald's, groceries, Uber Eats → Food
-
-            • Transport:
-              - Any movement or commuting expense.
-              - Examples: Uber, Careem, fuel, bus fare, taxi, train ticket → Transport
-
-            • Office:
-              - Work-related supplies or tools used primarily for professional or business purposes.
-              - Examples: Pencils, notebooks, printer ink, office furniture → Office
-
-            • Utilities:
-              - Recurring household or service bills.
-              - Examples: electricity, gas, water, internet, mobile bill, subscriptions for utilities → Utilities
-
-            • Entertainment:
-              - Non-essential leisure or fun activities.
-              - Examples: movies, Netflix, Spotify, games, concerts → Entertainment
-
-            • Health:
-              - Medical, healthcare, or wellness-related expenses.
-              - Examples: hospital, doctor visit, medicines, pharmacy, gym (if fitness-focused) → Health
-
-            • Shopping:
-              - General retail purchases NOT fitting other categories.
-              - Examples: clothes, shoes, electronics, Amazon purchase → Shopping
-
-            • Travel:
-              - Long-distance or out-of-city travel expenses.
-              - Examples: flights, hotels, Airbnb, travel tickets, visa fees → Travel
-
-            • Education:
-              - Learning or academic-related expenses.
-              - Examples: books, courses, tuition fees, online classes → Education
-
-            • Other:
-              - Use ONLY if the item clearly does NOT fit ANY category above.
-              - This is a LAST RESORT category.
-
-            --- DECISION RULES (MANDATORY) ---
-            1. NEVER invent a new category.
-            2. If multiple categories seem possible, choose the MOST SPECIFIC one.
-            3. If still ambiguous, choose the category based on PRIMARY INTENT of the expense.
-            4. If no category applies confidently, use "Other" — but ONLY after all others fail.
-
-
-            STEP 1: DETERMINE INTENT
-            1. "LOG_EXPENSE": User is reporting spending (e.g., "I spent 500 on lunch").
-            2. "QUERY_SPENDING": User is asking for analytics (e.g., "How much did I spend on KFC?").
-            3. "EDIT_EXPENSE": User wants to update a specific previous entry (e.g., "Update chicken wings to 550", "Change yesterday's lunch to 300").
-            4. "UNDO_LAST": User wants to delete or revert the immediately preceding action (e.g., "Undo that", "Delete the last one", "Cancel").
-            5. "IRRELEVANT": Input is NOT related to finances.
-            
-            STEP 2: EXTRACT DATA
-            
-            --- CASE A: LOG_EXPENSE ---
-            Extract: item, amount, currency (default PKR), merchant, category (FROM ALLOWED LIST), date (YYYY-MM-DD).
-            
-            --- CASE B: QUERY_SPENDING ---
-            Extract filter parameters (use "ALL" if not specified):
-            - category, merchant, item, start_date, end_date.
-            
-            --- CASE C: EDIT_EXPENSE ---
-            Extract:
-            - target_item (string): The item name.
-            - target_date (string):
-                 - If user specifies "today", "yesterday", "last friday" -> Calculate YYYY-MM-DD.
-                 - If user DOES NOT mention a date -> Return "LAST_MATCH".
-            - new_amount (number): The corrected cost.
-            - new_currency (string): The corrected currency (default to PKR).
-            
-            --- CASE D: UNDO_LAST ---
-            No specific data needed.
-            
-            STEP 3: OUTPUT JSON ONLY
-            
-            Format for LOG_EXPENSE:
-            {
-              "intent": "LOG_EXPENSE",
-              "data": { "item": "...", "amount": 0, "currency": "...", "merchant": "...", "category": "...", "date": "..." }
-            }
-            
-            Format for QUERY_SPENDING:
-            {
-              "intent": "QUERY_SPENDING",
-              "query": { "category": "...", "merchant": "...", "item": "...", "start_date": "...", "end_date": "..." }
-            }
-            
-            Format for EDIT_EXPENSE:
-            {
-              "intent": "EDIT_EXPENSE",
-              "edit": { "target_item": "...", "target_date": "...", "new_amount": 0, "new_currency": "..." }
-            }
-            
-            Format for UNDO_LAST:
-            { "intent": "UNDO_LAST" }
-            
-            Format for IRRELEVANT:
-            { "intent": "IRRELEVANT", "message": "..." }
-            """.formatted(today);
-
-        Map<String, Object> body = Map.of(
-                "model", "llama-3.3-70b-versatile",
-                "messages", List.of(
-                        Map.of("role", "system", "content", systemPrompt),
-                        Map.of("role", "user", "content", rawText)
-                ),
-                "response_format", Map.of("type", "json_object"),
-                "temperature", 0.1
-        );
-
-        String jsonBody = objectMapper.writeValueAsString(body);
-        HttpEntity<String> requestEntity = new HttpEntity<>(jsonBody, headers);
-
-        ResponseEntity<String> response = restTemplate.exchange(GROQ_CHAT_URL, HttpMethod.POST, requestEntity, String.class);
+        HttpEntity<byte[]> requestEntity = new HttpEntity<>(promptTemplate.render(rawText), headers);
 
-        if (response.getStatusCode().is2xxSuccessful()) {
-            JsonNode root = objectMapper.readTree(response.getBody());
-            return root.path("choices").get(0).path("message").path("content").asText();
-        } else {
+        ResponseEntity<byte[]> response = restTemplate.exchange(groqChatUrl, HttpMethod.POST, requestEntity, byte[].class);
+
+        String content = response.getStatusCode().is2xxSuccessful() && response.getBody() != null
+                ? promptTemplate.extractContent(response.getBody()) : null;
+        if (content == null) {
             throw new RuntimeException("Failed to analyze input");
         }
+        return content;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,18 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+/**
+ * Remembers which webhook message ids have already been accepted so Meta's redeliveries are not
+ * processed twice. Pick the implementation with {@code idempotency.store} ({@code memory} or {@code jdbc}).
+ */
+public interface IdempotencyStore {
+
+    /**
+     * Atomically records the key. Returns true if this call claimed it, false if it was already seen.
+     */
+    boolean tryClaim(String key);
+
+    /**
+     * Forgets a claim, e.g. when the message could not be queued and Meta should redeliver it.
+     */
+    void release(String key);
+}
@@ -0,0 +1,49 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Process-local store bounded by size and age. Fast, but forgets everything on restart.
+ */
+@Component
+@ConditionalOnProperty(name = "idempotency.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+
+    private final Cache<String, Boolean> seen;
+    private final Counter hits;
+    private final Counter misses;
+
+    public InMemoryIdempotencyStore(@Value("${idempotency.max-entries:100000}") long maxEntries,
+                                    @Value("${idempotency.ttl:PT24H}") Duration ttl,
+                                    MeterRegistry meterRegistry) {
+        this.hits = meterRegistry.counter("idempotency.hits", "store", "memory");
+        this.misses = meterRegistry.counter("idempotency.misses", "store", "memory");
+        Counter evictions = meterRegistry.counter("idempotency.evictions", "store", "memory");
+
+        this.seen = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .<String, Boolean>evictionListener((key, value, cause) -> evictions.increment())
+                .build();
+    }
+
+    @Override
+    public boolean tryClaim(String key) {
+        boolean claimed = seen.asMap().putIfAbsent(key, Boolean.TRUE) == null;
+        (claimed ? misses : hits).increment();
+        return claimed;
+    }
+
+    @Override
+    public void release(String key) {
+        seen.invalidate(key);
+    }
+}
@@ -0,0 +1,70 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Postgres-backed store so redeliveries after a deploy or restart are still recognised.
+ * The primary key makes the claim atomic; old rows are purged on a schedule.
+ */
+@Component
+@ConditionalOnProperty(name = "idempotency.store", havingValue = "jdbc")
+public class JdbcIdempotencyStore implements IdempotencyStore {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Duration ttl;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public JdbcIdempotencyStore(JdbcTemplate jdbcTemplate,
+                                @Value("${idempotency.ttl:PT24H}") Duration ttl,
+                                MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ttl = ttl;
+        this.hits = meterRegistry.counter("idempotency.hits", "store", "jdbc");
+        this.misses = meterRegistry.counter("idempotency.misses", "store", "jdbc");
+        this.evictions = meterRegistry.counter("idempotency.evictions", "store", "jdbc");
+    }
+
+    @PostConstruct
+    public void createTable() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS processed_messages (" +
+                "message_id VARCHAR(255) PRIMARY KEY, " +
+                "processed_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_processed_messages_processed_at " +
+                "ON processed_messages (processed_at)");
+    }
+
+    @Override
+    public boolean tryClaim(String key) {
+        int inserted = jdbcTemplate.update(
+                "INSERT INTO processed_messages (message_id, processed_at) VALUES (?, ?) ON CONFLICT (message_id) DO NOTHING",
+                key, Timestamp.from(Instant.now()));
+        boolean claimed = inserted == 1;
+        (claimed ? misses : hits).increment();
+        return claimed;
+    }
+
+    @Override
+    public void release(String key) {
+        jdbcTemplate.update("DELETE FROM processed_messages WHERE message_id = ?", key);
+    }
+
+    @Scheduled(fixedDelayString = "${idempotency.jdbc.purge-interval-ms:3600000}")
+    public void purgeExpired() {
+        int purged = jdbcTemplate.update("DELETE FROM processed_messages WHERE processed_at < ?",
+                Timestamp.from(Instant.now().minus(ttl)));
+        evictions.increment(purged);
+    }
+}
@@ -0,0 +1,125 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks with the same key one at a time, in submission order, while different keys run in
+ * parallel on the delegate executor. Each key gets a lane with a bounded mailbox; a lane occupies at
+ * most one delegate thread and is dropped as soon as its mailbox drains, so idle keys cost nothing.
+ * <p>
+ * Tasks never run on the submitting thread. If the delegate refuses to start a lane that already
+ * holds accepted tasks, the lane is handed to it again after {@link #RESTART_DELAY}.
+ */
+@Slf4j
+public class KeyedExecutor {
+
+    static final Duration RESTART_DELAY = Duration.ofMillis(200);
+
+    private final Executor delegate;
+    private final TaskScheduler scheduler;
+    private final int mailboxCapacity;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    public KeyedExecutor(Executor delegate, TaskScheduler scheduler, int mailboxCapacity) {
+        if (mailboxCapacity <= 0) throw new IllegalArgumentException("mailboxCapacity must be positive");
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.mailboxCapacity = mailboxCapacity;
+    }
+
+    /**
+     * Queues {@code task} behind earlier tasks for {@code key}.
+     *
+     * @throws RejectedExecutionException if the key's mailbox is full or the delegate refuses a new lane
+     */
+    public void execute(String key, Runnable task) {
+        boolean[] startLane = {false};
+        Lane lane = lanes.compute(key, (k, existing) -> {
+            Lane l = existing != null ? existing : new Lane(k);
+            if (l.mailbox.size() >= mailboxCapacity) {
+                throw new RejectedExecutionException("Mailbox full for " + k);
+            }
+            l.mailbox.add(task);
+            if (!l.running) {
+                l.running = true;
+                startLane[0] = true;
+            }
+            return l;
+        });
+
+        if (!startLane[0]) return;
+        try {
+            delegate.execute(lane::drain);
+        } catch (RejectedExecutionException e) {
+            boolean[] othersQueued = {false};
+            lanes.compute(key, (k, l) -> {
+                l.mailbox.remove(task);
+                othersQueued[0] = !l.mailbox.isEmpty();
+                l.running = othersQueued[0];
+                return othersQueued[0] ? l : null;
+            });
+            // Tasks accepted while we were starting the lane must not be stranded
+            if (othersQueued[0]) restartLater(lane);
+            throw e;
+        }
+    }
+
+    private void restartLater(Lane lane) {
+        scheduler.schedule(() -> {
+            try {
+                delegate.execute(lane::drain);
+            } catch (RejectedExecutionException e) {
+                log.debug("Lane {} still refused, retrying in {}", lane.key, RESTART_DELAY);
+                restartLater(lane);
+            }
+        }, Instant.now().plus(RESTART_DELAY));
+    }
+
+    public int activeLanes() {
+        return lanes.size();
+    }
+
+    private final class Lane {
+        private final String key;
+        // Guarded by the map's per-key lock (all access goes through compute)
+        private final Queue<Runnable> mailbox = new ArrayDeque<>();
+        private boolean running;
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        void drain() {
+            Runnable next;
+            while ((next = poll()) != null) {
+                try {
+                    next.run();
+                } catch (RuntimeException e) {
+                    log.warn("Task for {} failed: {}", key, e.getMessage());
+                }
+            }
+        }
+
+        // Takes the next task, or retires the lane when there is none
+        private Runnable poll() {
+            Runnable[] next = {null};
+            lanes.compute(key, (k, l) -> {
+                next[0] = mailbox.poll();
+                if (next[0] != null) return this;
+                running = false;
+                return null;
+            });
+            return next[0];
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.maazahmad.whatsapptranscriber.model.PooledSheet;
+import com.maazahmad.whatsapptranscriber.repository.PooledSheetRepository;
+import com.maazahmad.whatsapptranscriber.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a stock of ready-made ledgers so onboarding only has to rename one and share it, instead of
+ * creating a file and writing headers while the user waits. The pool lives in the database, so
+ * several instances can claim from it safely and it survives restarts.
+ */
+@Slf4j
+@Service
+public class LedgerPoolService {
+
+    private final PooledSheetRepository pooledSheetRepository;
+    private final UserRepository userRepository;
+    private final GoogleDriveService googleDriveService;
+    private final GoogleQuotaGovernor quotaGovernor;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskExecutor poolExecutor;
+
+    private final AtomicLong available = new AtomicLong();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter created;
+    private final Counter createFailures;
+    private final Counter assignFailures;
+    private final Counter swept;
+    private final Timer claimTimer;
+
+    @Value("${ledger.pool.enabled:true}")
+    private boolean enabled;
+
+    // Refill starts when fewer than this many sheets are waiting...
+    @Value("${ledger.pool.low-water:5}")
+    private int lowWater;
+
+    // ...and tops the pool back up to this size
+    @Value("${ledger.pool.target-size:20}")
+    private int targetSize;
+
+    // A claim still unassigned after this long has failed (or its instance died) and is swept
+    @Value("${ledger.pool.abandoned-claim-after:PT10M}")
+    private Duration abandonedClaimAfter;
+
+    public LedgerPoolService(PooledSheetRepository pooledSheetRepository,
+                             UserRepository userRepository,
+                             GoogleDriveService googleDriveService,
+                             GoogleQuotaGovernor quotaGovernor,
+                             TransactionTemplate transactionTemplate,
+                             @Qualifier("sheetPoolExecutor") ThreadPoolTaskExecutor poolExecutor,
+                             MeterRegistry meterRegistry) {
+        this.pooledSheetRepository = pooledSheetRepository;
+        this.userRepository = userRepository;
+        this.googleDriveService = googleDriveService;
+        this.quotaGovernor = quotaGovernor;
+        this.transactionTemplate = transactionTemplate;
+        this.poolExecutor = poolExecutor;
+
+        Gauge.builder("ledger.pool.available", available, AtomicLong::get)
+                .description("Pre-provisioned ledgers waiting to be claimed")
+                .register(meterRegistry);
+        this.hits = meterRegistry.counter("ledger.pool.claims", "result", "hit");
+        this.misses = meterRegistry.counter("ledger.pool.claims", "result", "miss");
+        this.created = meterRegistry.counter("ledger.pool.created", "result", "success");
+        this.createFailures = meterRegistry.counter("ledger.pool.created", "result", "failure");
+        this.assignFailures = meterRegistry.counter("ledger.pool.assign.failures");
+        this.swept = meterRegistry.counter("ledger.pool.swept");
+        this.claimTimer = Timer.builder("ledger.pool.claim")
+                .description("Claim, rename and share of a pooled ledger")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Hands a pooled ledger to the user and returns its id, or empty when the pool is empty or the
+     * handover failed (the caller then clones a ledger the slow way).
+     */
+    public Optional<String> claim(String email, String phoneNumber) {
+        if (!enabled) return Optional.empty();
+
+        Optional<String> sheetId = claimTimer.record(() -> {
+            Optional<String> claimed = transactionTemplate.execute(status ->
+                    pooledSheetRepository.findFirstByClaimedAtIsNullOrderByCreatedAtAsc().map(sheet -> {
+                        sheet.setClaimedAt(Instant.now());
+                        sheet.setClaimedBy(phoneNumber);
+                        return pooledSheetRepository.save(sheet).getSpreadsheetId();
+                    }));
+            if (claimed == null || claimed.isEmpty()) return Optional.<String>empty();
+
+            try {
+                googleDriveService.assignLedger(claimed.get(), email, phoneNumber);
+                markAssigned(claimed.get());
+                return claimed;
+            } catch (Exception e) {
+                // Stays claimed so it is never handed out half-shared; sweepAbandonedClaims deletes it
+                assignFailures.increment();
+                log.warn("Pooled ledger {} could not be assigned: {}", claimed.get(), e.getMessage());
+                return Optional.<String>empty();
+            }
+        });
+
+        (sheetId.isPresent() ? hits : misses).increment();
+        refillAsync();
+        return sheetId;
+    }
+
+    /**
+     * Tops the pool up when it is low. Creations run on {@code sheetPoolExecutor} and this returns
+     * without waiting for them; the flag keeps a second refill from starting until they are done.
+     */
+    @Scheduled(fixedDelayString = "${ledger.pool.check-interval-ms:60000}", initialDelayString = "${ledger.pool.initial-delay-ms:30000}")
+    public void refillIfLow() {
+        if (!enabled) return;
+        long unclaimed = pooledSheetRepository.countByClaimedAtIsNull();
+        available.set(unclaimed);
+        if (unclaimed >= lowWater || !refilling.compareAndSet(false, true)) return;
+
+        try {
+            int missing = (int) (targetSize - unclaimed);
+            log.info("Ledger pool at {}, creating {}", unclaimed, missing);
+            CompletableFuture<?>[] creations = new CompletableFuture<?>[missing];
+            for (int i = 0; i < missing; i++) {
+                creations[i] = CompletableFuture.runAsync(() -> quotaGovernor.background(this::createOne), poolExecutor);
+            }
+            CompletableFuture.allOf(creations).whenComplete((r, e) -> refilling.set(false));
+        } catch (RuntimeException e) {
+            refilling.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes ledgers that were claimed but never assigned. They may already be renamed or shared
+     * with someone, so they are never put back in the pool. A claim whose user exists was assigned
+     * before assignedAt was recorded and is only marked.
+     */
+    @Scheduled(fixedDelayString = "${ledger.pool.sweep-interval-ms:600000}", initialDelayString = "${ledger.pool.initial-delay-ms:30000}")
+    public void sweepAbandonedClaims() {
+        if (!enabled) return;
+        List<PooledSheet> abandoned = pooledSheetRepository.findByClaimedAtBeforeAndAssignedAtIsNull(
+                Instant.now().minus(abandonedClaimAfter));
+        for (PooledSheet sheet : abandoned) {
+            if (userRepository.existsBySpreadsheetId(sheet.getSpreadsheetId())) {
+                markAssigned(sheet.getSpreadsheetId());
+                continue;
+            }
+            // Drive calls stay off the scheduler thread
+            poolExecutor.execute(() -> quotaGovernor.background(() -> deleteAbandoned(sheet)));
+        }
+    }
+
+    private Void deleteAbandoned(PooledSheet sheet) {
+        try {
+            googleDriveService.deleteLedger(sheet.getSpreadsheetId());
+            pooledSheetRepository.delete(sheet);
+            swept.increment();
+            log.info("Deleted pooled ledger {} abandoned by a failed claim", sheet.getSpreadsheetId());
+        } catch (Exception e) {
+            // Left in place for the next sweep
+            log.warn("Could not delete abandoned pooled ledger {}: {}", sheet.getSpreadsheetId(), e.getMessage());
+        }
+        return null;
+    }
+
+    private void markAssigned(String sheetId) {
+        pooledSheetRepository.findById(sheetId).ifPresent(sheet -> {
+            sheet.setAssignedAt(Instant.now());
+            pooledSheetRepository.save(sheet);
+        });
+    }
+
+    private void refillAsync() {
+        available.set(pooledSheetRepository.countByClaimedAtIsNull());
+        if (available.get() < lowWater && !refilling.get()) {
+            poolExecutor.execute(this::refillIfLow);
+        }
+    }
+
+    private Void createOne() {
+        try {
+            String sheetId = googleDriveService.createPooledLedger();
+            pooledSheetRepository.save(PooledSheet.builder().spreadsheetId(sheetId).createdAt(Instant.now()).build());
+            available.incrementAndGet();
+            created.increment();
+        } catch (Exception e) {
+            createFailures.increment();
+            log.warn("Failed to pre-provision ledger: {}", e.getMessage());
+        }
+        return null;
+    }
+}
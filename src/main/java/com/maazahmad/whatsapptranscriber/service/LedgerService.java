@@ -0,0 +1,374 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maazahmad.whatsapptranscriber.model.Expense;
+import com.maazahmad.whatsapptranscriber.model.LedgerOperation;
+import com.maazahmad.whatsapptranscriber.repository.ExpenseRepository;
+import com.maazahmad.whatsapptranscriber.repository.LedgerOperationRepository;
+import com.maazahmad.whatsapptranscriber.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ledger reads and writes against the local {@code expenses} table. The user's Google Sheet is kept
+ * up to date asynchronously by {@link SheetSyncService}, so nothing here waits on the Sheets API
+ * except the one-off import of a ledger that predates the local store.
+ * <p>
+ * Each log, edit, undo or redo writes its rows and journal entries in one transaction; the index
+ * and the sheet sync only hear about the change once it has committed.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LedgerService {
+
+    private static final TypeReference<List<Object>> ROW_TYPE = new TypeReference<>() {};
+
+    private final ExpenseRepository expenseRepository;
+    private final LedgerOperationRepository ledgerOperationRepository;
+    private final UserRepository userRepository;
+    private final GoogleSheetsService googleSheetsService;
+    private final SheetSyncService sheetSyncService;
+    private final ExpenseIndexService expenseIndexService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    // Completes once the ledger is in the local store; the import runs outside the map's locks
+    private final Map<String, CompletableFuture<Void>> mirrored = new ConcurrentHashMap<>();
+
+    /**
+     * Logs every expense extracted from one message. They are saved together, appended to the sheet
+     * in a single batch and journaled as one undo step.
+     */
+    public List<Expense> logExpenses(List<JsonNode> items, String spreadsheetId) {
+        if (items.isEmpty()) return List.of();
+        ensureMirrored(spreadsheetId);
+
+        List<Expense> expenses = items.stream().map(item -> toExpense(item, spreadsheetId)).toList();
+        transactionTemplate.executeWithoutResult(status -> {
+            expenseRepository.saveAll(expenses);
+            String batchId = expenses.size() > 1 ? UUID.randomUUID().toString() : null;
+            clearRedoHistory(spreadsheetId);
+            expenses.forEach(expense -> journal(LedgerOperation.Type.LOG, expense, null, batchId));
+            afterCommit(() -> {
+                expenses.forEach(expenseIndexService::onSaved);
+                sheetSyncService.appendAll(expenses);
+            });
+        });
+        log.info("{} expense(s) logged to {}", expenses.size(), spreadsheetId);
+        return expenses;
+    }
+
+    private Expense toExpense(JsonNode item, String spreadsheetId) {
+        LocalDate date = parseDateSafely(item.path("date").asText(null));
+        return Expense.builder()
+                .spreadsheetId(spreadsheetId)
+                .expenseDate(date != null ? date : LocalDate.now())
+                .item(item.path("item").asText("Unknown"))
+                .amount(item.path("amount").asDouble(0.0))
+                .currency(item.path("currency").asText("PKR"))
+                .merchant(item.path("merchant").asText("Unknown"))
+                .category(item.path("category").asText("Uncategorized"))
+                .build();
+    }
+
+    public String calculateAnalytics(String category, String merchant, String item, String startStr, String endStr, String spreadsheetId) {
+        ensureMirrored(spreadsheetId);
+        ExpenseIndex index = expenseIndexService.get(spreadsheetId);
+        if (index.isEmpty()) return "⚠️ Your ledger is currently empty.";
+
+        String currency = "PKR";
+
+        // Fix: Handle relative date strings
+        LocalDate startDate = "7_DAYS_AGO".equalsIgnoreCase(startStr) ? LocalDate.now().minusDays(7) : parseDateSafely(startStr);
+        LocalDate endDate = "TODAY".equalsIgnoreCase(endStr) ? LocalDate.now() : parseDateSafely(endStr);
+
+        ExpenseIndex.Result result = index.query(startDate, endDate,
+                isFilterActive(category) ? category : null,
+                isFilterActive(merchant) ? merchant : null,
+                isFilterActive(item) ? item : null);
+
+        double total = result.total();
+        int matchCount = result.count();
+        return matchCount == 0 ? "🔍 No records match." : String.format("📊 *Spending Report*\nTotal: *%.2f %s*\nTransactions: %d", total, currency, matchCount);
+    }
+
+    public String editExpense(String targetItem, String targetDateStr, double newAmount, String newCurrency, String spreadsheetId) {
+        ensureMirrored(spreadsheetId);
+        LocalDate targetDate = "LAST_MATCH".equalsIgnoreCase(targetDateStr) ? null : LocalDate.parse(targetDateStr);
+        // Exact item name first, then whole-word matches, so "tea" never edits "steak"
+        Long targetId = expenseIndexService.get(spreadsheetId).latestWithItem(targetItem, targetDate);
+        if (targetId == null) return "❌ Expense not found.";
+
+        boolean found = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            Optional<Expense> match = expenseRepository.findById(targetId).filter(e -> !e.isDeleted());
+            if (match.isEmpty()) return false;
+
+            Expense expense = match.get();
+            List<Object> before = expense.toSheetRow();
+            expense.setAmount(newAmount);
+            expense.setCurrency(newCurrency);
+            saveEdited(expense);
+            clearRedoHistory(spreadsheetId);
+            journal(LedgerOperation.Type.EDIT, expense, before, null);
+            return true;
+        }));
+        if (!found) return "❌ Expense not found.";
+        return String.format("✅ Updated **%s** to **%.2f %s**.", targetItem, newAmount, newCurrency);
+    }
+
+    /**
+     * Reverts the last {@code steps} logs/edits recorded in the journal, newest first. Ledgers that
+     * have never been journaled (imported ones) fall back to deleting the newest row.
+     */
+    public String undo(String spreadsheetId, int steps) {
+        ensureMirrored(spreadsheetId);
+        return transactionTemplate.execute(status -> undoSteps(spreadsheetId, steps));
+    }
+
+    private String undoSteps(String spreadsheetId, int steps) {
+        int undone = 0;
+        for (; undone < steps; undone++) {
+            Optional<LedgerOperation> op = ledgerOperationRepository
+                    .findFirstBySpreadsheetIdAndStatusOrderByIdDesc(spreadsheetId, LedgerOperation.Status.APPLIED);
+            if (op.isEmpty()) break;
+            batchOf(op.get(), LedgerOperation.Status.APPLIED, Sort.Direction.DESC).forEach(this::revert);
+        }
+
+        if (undone == 0) {
+            // Everything journaled is already undone; older rows are not ours to delete
+            if (ledgerOperationRepository.existsBySpreadsheetId(spreadsheetId)) return "⚠️ Nothing to undo.";
+            Optional<Expense> last = expenseRepository.findFirstBySpreadsheetIdAndDeletedFalseOrderByIdDesc(spreadsheetId);
+            if (last.isEmpty()) return "⚠️ Nothing to undo.";
+            remove(last.get());
+            return "✅ Last entry deleted.";
+        }
+        return undone == 1 ? "✅ Last change undone." : "✅ Undid the last " + undone + " changes.";
+    }
+
+    /**
+     * Re-applies the most recently undone {@code steps} changes. Any new log or edit clears the redo history.
+     */
+    public String redo(String spreadsheetId, int steps) {
+        ensureMirrored(spreadsheetId);
+        return transactionTemplate.execute(status -> redoSteps(spreadsheetId, steps));
+    }
+
+    private String redoSteps(String spreadsheetId, int steps) {
+        int redone = 0;
+        for (; redone < steps; redone++) {
+            Optional<LedgerOperation> op = ledgerOperationRepository
+                    .findFirstBySpreadsheetIdAndStatusOrderByIdAsc(spreadsheetId, LedgerOperation.Status.UNDONE);
+            if (op.isEmpty()) break;
+            batchOf(op.get(), LedgerOperation.Status.UNDONE, Sort.Direction.ASC).forEach(this::reapply);
+        }
+
+        if (redone == 0) return "⚠️ Nothing to redo.";
+        return redone == 1 ? "✅ Change redone." : "✅ Redid the last " + redone + " changes.";
+    }
+
+    // A multi-expense log is one step: every operation of its batch moves together
+    private List<LedgerOperation> batchOf(LedgerOperation op, LedgerOperation.Status status, Sort.Direction direction) {
+        if (op.getBatchId() == null) return List.of(op);
+        return ledgerOperationRepository.findBySpreadsheetIdAndBatchIdAndStatus(
+                op.getSpreadsheetId(), op.getBatchId(), status, Sort.by(direction, "id"));
+    }
+
+    private void revert(LedgerOperation op) {
+        Optional<Expense> target = expenseRepository.findById(op.getExpenseId()).filter(e -> !e.isDeleted());
+        target.ifPresent(expense -> {
+            if (op.getType() == LedgerOperation.Type.LOG) {
+                remove(expense);
+            } else {
+                expense.applySheetRow(readRow(op.getBeforeRow()));
+                saveEdited(expense);
+            }
+        });
+        op.setStatus(LedgerOperation.Status.UNDONE);
+        ledgerOperationRepository.save(op);
+    }
+
+    private void reapply(LedgerOperation op) {
+        if (op.getType() == LedgerOperation.Type.LOG) {
+            Optional<Expense> undone = expenseRepository.findById(op.getExpenseId());
+            if (undone.isPresent()) {
+                // Undo only soft-deletes, so the same row comes back
+                Expense expense = undone.get();
+                expense.setDeleted(false);
+                expense.applySheetRow(readRow(op.getAfterRow()));
+                expense.touch();
+                expenseRepository.save(expense);
+                afterCommit(() -> {
+                    expenseIndexService.onSaved(expense);
+                    if (expense.getSheetRow() == null) {
+                        sheetSyncService.append(expense);
+                    } else {
+                        // Its sheet row hasn't been cleared yet; the queued clear will see it is back
+                        sheetSyncService.update(expense);
+                    }
+                });
+            } else {
+                // Hard-deleted by a reconcile from before soft deletes: log a fresh copy
+                Expense expense = Expense.builder().spreadsheetId(op.getSpreadsheetId()).build();
+                expense.applySheetRow(readRow(op.getAfterRow()));
+                expenseRepository.save(expense);
+                afterCommit(() -> {
+                    expenseIndexService.onSaved(expense);
+                    sheetSyncService.append(expense);
+                });
+
+                // Later undone edits of the same row must follow it to the new id
+                List<LedgerOperation> followers = ledgerOperationRepository
+                        .findBySpreadsheetIdAndStatus(op.getSpreadsheetId(), LedgerOperation.Status.UNDONE).stream()
+                        .filter(later -> later.getExpenseId().equals(op.getExpenseId()))
+                        .toList();
+                followers.forEach(later -> later.setExpenseId(expense.getId()));
+                ledgerOperationRepository.saveAll(followers);
+                op.setExpenseId(expense.getId());
+            }
+        } else {
+            expenseRepository.findById(op.getExpenseId()).filter(e -> !e.isDeleted()).ifPresent(expense -> {
+                expense.applySheetRow(readRow(op.getAfterRow()));
+                saveEdited(expense);
+            });
+        }
+        op.setStatus(LedgerOperation.Status.APPLIED);
+        ledgerOperationRepository.save(op);
+    }
+
+    private void remove(Expense expense) {
+        expense.setDeleted(true);
+        expenseRepository.save(expense);
+        afterCommit(() -> {
+            expenseIndexService.onRemoved(expense);
+            sheetSyncService.delete(expense);
+        });
+    }
+
+    private void saveEdited(Expense expense) {
+        expense.touch();
+        expenseRepository.save(expense);
+        afterCommit(() -> {
+            expenseIndexService.onSaved(expense);
+            sheetSyncService.update(expense);
+        });
+    }
+
+    // The sync re-reads rows when it runs, so it must not be queued before they are committed
+    private void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // A new change invalidates whatever could have been redone
+    private void clearRedoHistory(String spreadsheetId) {
+        List<LedgerOperation> redoable = ledgerOperationRepository
+                .findBySpreadsheetIdAndStatus(spreadsheetId, LedgerOperation.Status.UNDONE);
+        if (!redoable.isEmpty()) {
+            redoable.forEach(op -> op.setStatus(LedgerOperation.Status.DISCARDED));
+            ledgerOperationRepository.saveAll(redoable);
+        }
+    }
+
+    @SneakyThrows
+    private void journal(LedgerOperation.Type type, Expense expense, List<Object> before, String batchId) {
+        ledgerOperationRepository.save(LedgerOperation.builder()
+                .spreadsheetId(expense.getSpreadsheetId())
+                .expenseId(expense.getId())
+                .batchId(batchId)
+                .type(type)
+                .status(LedgerOperation.Status.APPLIED)
+                .beforeRow(before != null ? objectMapper.writeValueAsString(before) : null)
+                .afterRow(objectMapper.writeValueAsString(expense.toSheetRow()))
+                .createdAt(Instant.now())
+                .build());
+    }
+
+    @SneakyThrows
+    private List<Object> readRow(String json) {
+        return objectMapper.readValue(json, ROW_TYPE);
+    }
+
+    /**
+     * Ledgers created before the local store existed are imported from their sheet on first use.
+     */
+    @SneakyThrows
+    private void ensureMirrored(String spreadsheetId) {
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> existing = mirrored.putIfAbsent(spreadsheetId, mine);
+        if (existing != null) {
+            try {
+                existing.join();
+                return;
+            } catch (CompletionException e) {
+                throw e.getCause();
+            }
+        }
+
+        try {
+            if (!userRepository.existsBySpreadsheetIdAndLedgerMirroredTrue(spreadsheetId)) {
+                importFromSheet(spreadsheetId);
+            }
+            mine.complete(null);
+        } catch (Throwable e) {
+            // Forget the attempt so the next call retries the import
+            mirrored.remove(spreadsheetId, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void importFromSheet(String spreadsheetId) {
+        // Mirrored before the flag existed: it only needs recording
+        boolean hasRows = expenseRepository.existsBySpreadsheetId(spreadsheetId);
+        List<List<Object>> rows = hasRows ? null : googleSheetsService.readAllRows(spreadsheetId);
+
+        List<Expense> imported = new ArrayList<>();
+        // Row 1 is the header
+        for (int i = 1; rows != null && i < rows.size(); i++) {
+            if (Expense.isBlankSheetRow(rows.get(i))) continue;
+            Expense expense = Expense.builder().spreadsheetId(spreadsheetId).sheetRow(i + 1).build();
+            expense.applySheetRow(rows.get(i));
+            imported.add(expense);
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            // Another instance imported it first; its rows are already committed
+            if (userRepository.markLedgerMirrored(spreadsheetId) == 0) return;
+            expenseRepository.saveAll(imported);
+            if (!hasRows) log.info("Imported {} rows from {} into local ledger", imported.size(), spreadsheetId);
+        });
+    }
+
+    private LocalDate parseDateSafely(String dateStr) {
+        if (dateStr == null || dateStr.isEmpty() || "null".equalsIgnoreCase(dateStr)) return null;
+        try { return LocalDate.parse(dateStr); } catch (Exception e) { return null; }
+    }
+
+    private boolean isFilterActive(String filter) {
+        return filter != null && !filter.isEmpty() && !"null".equalsIgnoreCase(filter);
+    }
+}
@@ -0,0 +1,320 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maazahmad.whatsapptranscriber.dto.InboundMessage;
+import com.maazahmad.whatsapptranscriber.model.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs everything that is too slow for the webhook request thread: user lookup, media download,
+ * Whisper, Llama, Sheets and the WhatsApp reply.
+ */
+@Slf4j
+@Service
+public class MessageProcessingService {
+
+    private static final int MAX_UNDO_STEPS = 10;
+    private static final String CORRELATION_ID = "messageId";
+
+    private final WhatsAppService whatsAppService;
+    private final GroqService groqService;
+    private final FastPathIntentClassifier fastPathIntentClassifier;
+    private final ObjectMapper objectMapper;
+    private final GoogleSheetsService googleSheetsService;
+    private final LedgerService ledgerService;
+    private final UserLookupService userLookupService;
+    private final GoogleDriveService googleDriveService;
+    private final LedgerPoolService ledgerPoolService;
+    private final ReplyDispatcher replyDispatcher;
+    private final KeyedExecutor senderLanes;
+    private final MeterRegistry meterRegistry;
+
+    private final Duration audioDeadline;
+
+    private final Timer queueWaitTimer;
+    private final Timer processingTimer;
+    private final Counter rejectedCounter;
+
+    public MessageProcessingService(WhatsAppService whatsAppService,
+                                    GroqService groqService,
+                                    FastPathIntentClassifier fastPathIntentClassifier,
+                                    ObjectMapper objectMapper,
+                                    GoogleSheetsService googleSheetsService,
+                                    LedgerService ledgerService,
+                                    UserLookupService userLookupService,
+                                    GoogleDriveService googleDriveService,
+                                    LedgerPoolService ledgerPoolService,
+                                    ReplyDispatcher replyDispatcher,
+                                    @Qualifier("messageProcessingExecutor") ThreadPoolTaskExecutor executor,
+                                    TaskScheduler taskScheduler,
+                                    @Value("${processing.lanes.mailbox-capacity:20}") int mailboxCapacity,
+                                    @Value("${processing.audio-deadline:PT60S}") Duration audioDeadline,
+                                    MeterRegistry meterRegistry) {
+        this.whatsAppService = whatsAppService;
+        this.groqService = groqService;
+        this.fastPathIntentClassifier = fastPathIntentClassifier;
+        this.objectMapper = objectMapper;
+        this.googleSheetsService = googleSheetsService;
+        this.ledgerService = ledgerService;
+        this.userLookupService = userLookupService;
+        this.googleDriveService = googleDriveService;
+        this.ledgerPoolService = ledgerPoolService;
+        this.replyDispatcher = replyDispatcher;
+        this.senderLanes = new KeyedExecutor(executor, taskScheduler, mailboxCapacity);
+        this.audioDeadline = audioDeadline;
+        this.meterRegistry = meterRegistry;
+
+        this.queueWaitTimer = Timer.builder("message.queue.wait")
+                .description("Time between webhook receipt and a worker picking the message up")
+                .register(meterRegistry);
+        this.processingTimer = Timer.builder("message.processing")
+                .description("Worker time spent on a single message")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("message.rejected")
+                .description("Messages refused because the processing queue was full")
+                .register(meterRegistry);
+        Gauge.builder("message.queue.depth", executor, e -> e.getThreadPoolExecutor().getQueue().size())
+                .description("Messages waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("message.workers.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .register(meterRegistry);
+        Gauge.builder("message.lanes.active", senderLanes, KeyedExecutor::activeLanes)
+                .description("Senders with messages queued or in flight")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Hands a webhook batch to the worker pool. Each sender has its own lane, so their messages
+     * (and the ledger edits they make) run strictly one after another across webhook calls, while
+     * different senders run in parallel. Returns the messages that were refused because the sender's
+     * mailbox or the pool is full, so the caller can push back on Meta instead of silently dropping them.
+     */
+    public List<InboundMessage> submitAll(List<InboundMessage> messages) {
+        List<InboundMessage> rejected = new ArrayList<>();
+        Set<String> refusedSenders = new HashSet<>();
+        for (InboundMessage message : messages) {
+            // Once a sender is refused, later messages must wait too or they'd overtake the redelivery
+            if (!refusedSenders.contains(message.getFrom())) {
+                try {
+                    senderLanes.execute(message.getFrom(), () -> runTimed(message));
+                    continue;
+                } catch (RejectedExecutionException e) {
+                    refusedSenders.add(message.getFrom());
+                    log.warn("Processing queue full, rejecting messages from {}: {}", message.getFrom(), e.getMessage());
+                }
+            }
+            rejectedCounter.increment();
+            rejected.add(message);
+        }
+        return rejected;
+    }
+
+    private void runTimed(InboundMessage message) {
+        MDC.put(CORRELATION_ID, message.getId());
+        try {
+            queueWaitTimer.record(System.nanoTime() - message.getReceivedAtNanos(), TimeUnit.NANOSECONDS);
+            MessageTrace trace = new MessageTrace(message.getId(), message.getType(), message.getReceivedAtNanos());
+            processingTimer.record(() -> process(message, trace));
+            log.info(trace.finish(meterRegistry));
+        } finally {
+            MDC.remove(CORRELATION_ID);
+        }
+    }
+
+    private void process(InboundMessage message, MessageTrace trace) {
+        String from = message.getFrom();
+        try {
+            Optional<User> userOpt = trace.time("user_lookup", () -> userLookupService.findByPhoneNumber(from));
+
+            if ("audio".equals(message.getType())) {
+                log.debug("Audio message detected from {}", from);
+                // The budget starts at webhook receipt, so time spent queued counts against it
+                processAudio(message.getMediaId(), from, userOpt, trace,
+                        Deadline.startingAt(message.getReceivedAtNanos(), audioDeadline));
+            } else if ("text".equals(message.getType())) {
+                processText(from, message.getTextBody(), userOpt, trace);
+            }
+        } catch (Exception e) {
+            trace.outcome("error");
+            log.error("Failed to process message {}", message.getId(), e);
+        }
+    }
+
+    private void processText(String from, String body, Optional<User> userOpt, MessageTrace trace) {
+        log.debug("Text message received: {}", body);
+
+        if (body != null && body.contains("@")) {
+            trace.intent("ONBOARDING");
+            processOnboarding(from, body, userOpt, trace);
+        }
+        // MANUAL REFRESH COMMAND
+        else if (body != null && body.equalsIgnoreCase("REFRESH")) {
+            trace.intent("REFRESH");
+            if (userOpt.isPresent()) {
+                trace.time("sheets", () -> googleSheetsService.setupHeaders(userOpt.get().getSpreadsheetId()));
+                reply(trace, from, "✅ *Analytics Refresh:* Headers and Analytics tab have been injected into your ledger!");
+            } else {
+                reply(trace, from, "❌ You don't have a ledger yet. Send your email to start.");
+            }
+        }
+        else if (body != null && (body.equalsIgnoreCase("hi") || body.equalsIgnoreCase("hello"))) {
+            trace.intent("GREETING");
+            if (userOpt.isPresent()) {
+                reply(trace, from, "Welcome back! 💸\n\n" +
+                        "Ready to log something? Just send a *voice note*.\n" +
+                        "Your ledger: https://docs.google.com/spreadsheets/d/" + userOpt.get().getSpreadsheetId());
+            } else {
+                reply(trace, from, "👋 *SpendTrace AI is Active!*\n\n" +
+                        "🎙️ Send a *voice note* to log an expense.\n" +
+                        "📧 Send your *email* to set up your ledger.");
+            }
+        } else {
+            trace.intent("UNKNOWN_TEXT");
+            reply(trace, from, "My bad, I totally fumbled that one. 💀 Could you try saying it again? 🎙️");
+        }
+    }
+
+    private void processAudio(String mediaId, String from, Optional<User> userOpt, MessageTrace trace, Deadline deadline) {
+        if (userOpt.isEmpty()) {
+            trace.intent("UNREGISTERED");
+            reply(trace, from, "👋 Welcome! I don't have a ledger for you yet. Please reply with your *email address* to set one up.");
+            return;
+        }
+
+        String userSheetId = userOpt.get().getSpreadsheetId();
+
+        try {
+            String mediaUrl = trace.time("media_url", () -> whatsAppService.getMediaUrl(mediaId));
+            String transcription;
+            try (SpooledMedia audio = trace.time("download", () -> whatsAppService.downloadMedia(mediaUrl))) {
+                deadline.check("download");
+                transcription = trace.time("transcribe", () -> groqService.transcribe(audio, deadline));
+            }
+            String analysisJson = trace.time("analyze", () -> fastPathIntentClassifier.classify(transcription)
+                    .orElseGet(() -> groqService.analyzeInput(transcription, deadline)));
+            JsonNode root = objectMapper.readTree(analysisJson);
+            String intent = root.path("intent").asText();
+            trace.intent(intent);
+
+            String replyMessage = trace.time("ledger", () -> switch (intent) {
+                case "LOG_EXPENSE" -> {
+                    List<JsonNode> items = expenseItems(root);
+                    ledgerService.logExpenses(items, userSheetId);
+                    yield savedReply(items);
+                }
+                case "QUERY_SPENDING" -> {
+                    JsonNode q = root.path("query");
+                    yield "🔍 *CFO Report:* " + ledgerService.calculateAnalytics(
+                            q.path("category").asText(), q.path("merchant").asText(),
+                            q.path("item").asText(), q.path("start_date").asText(),
+                            q.path("end_date").asText(), userSheetId);
+                }
+                case "EDIT_EXPENSE" -> {
+                    JsonNode e = root.path("edit");
+                    yield ledgerService.editExpense(
+                            e.path("target_item").asText(), e.path("target_date").asText(),
+                            e.path("new_amount").asDouble(), e.path("new_currency").asText(), userSheetId);
+                }
+                case "UNDO_LAST" -> ledgerService.undo(userSheetId, steps(root));
+                case "REDO_LAST" -> ledgerService.redo(userSheetId, steps(root));
+                default -> "👋 I am your AI CFO. Send me voice notes to log expenses!";
+            });
+
+            reply(trace, from, replyMessage);
+
+        } catch (Deadline.ExceededException | CircuitBreaker.OpenException e) {
+            trace.outcome(e instanceof Deadline.ExceededException ? "deadline" : "unavailable");
+            log.warn("Audio processing gave up for {}: {}", from, e.getMessage());
+            reply(trace, from, "⏳ My transcription service is struggling right now. Please send that note again in a minute.");
+        } catch (Exception e) {
+            trace.outcome("error");
+            log.warn("Audio processing failed for {}: {}", from, e.getMessage());
+            reply(trace, from, "❌ Error processing audio: " + e.getMessage());
+        }
+    }
+
+    // "expenses" array; single-object "data" is still accepted (fast path, older prompt)
+    private static List<JsonNode> expenseItems(JsonNode root) {
+        List<JsonNode> items = new ArrayList<>();
+        root.path("expenses").forEach(items::add);
+        if (items.isEmpty() && root.path("data").isObject()) items.add(root.path("data"));
+        return items;
+    }
+
+    private static String savedReply(List<JsonNode> items) {
+        if (items.isEmpty()) return "🤔 I couldn't find an amount in that. Try \"500 on lunch\".";
+        if (items.size() == 1) {
+            JsonNode data = items.get(0);
+            return String.format("✅ *Expense Saved!*\n🛒 *Item:* %s\n💰 *Cost:* %s %s",
+                    data.path("item").asText(), data.path("amount").asText(), data.path("currency").asText());
+        }
+        StringBuilder reply = new StringBuilder("✅ *").append(items.size()).append(" Expenses Saved!*");
+        items.forEach(data -> reply.append(String.format("\n🛒 %s — %s %s",
+                data.path("item").asText(), data.path("amount").asText(), data.path("currency").asText("PKR"))));
+        return reply.toString();
+    }
+
+    // "undo the last 3" -> 3; capped so a misheard number can't wipe a ledger
+    private static int steps(JsonNode root) {
+        return Math.max(1, Math.min(root.path("steps").asInt(1), MAX_UNDO_STEPS));
+    }
+
+    private void processOnboarding(String from, String email, Optional<User> userOpt, MessageTrace trace) {
+        // DUPLICATE CHECK
+        if (userOpt.isPresent()) {
+            reply(trace, from, "You're already all set! ✅\n\n" +
+                    "Your ledger is here: https://docs.google.com/spreadsheets/d/" + userOpt.get().getSpreadsheetId());
+            return;
+        }
+
+        try {
+            Optional<String> pooled = trace.time("provision", () -> ledgerPoolService.claim(email, from));
+            String newSheetId;
+            if (pooled.isPresent()) {
+                newSheetId = pooled.get();
+            } else {
+                reply(trace, from, "⚙️ Provisioning your private ledger...");
+                long start = System.nanoTime();
+                newSheetId = googleDriveService.cloneSheetForUser(email, from);
+                trace.record("provision", System.nanoTime() - start);
+            }
+
+            User newUser = User.builder()
+                    .phoneNumber(from)
+                    .spreadsheetId(newSheetId)
+                    .email(email)
+                    .build();
+            trace.time("user_save", () -> userLookupService.save(newUser));
+
+            reply(trace, from, "✅ *Success!* Your ledger is ready:\nhttps://docs.google.com/spreadsheets/d/" + newSheetId);
+        } catch (Exception e) {
+            trace.outcome("error");
+            log.warn("Onboarding failed for {}: {}", from, e.getMessage());
+            reply(trace, from, "❌ Setup failed: " + e.getMessage());
+        }
+    }
+
+    private void reply(MessageTrace trace, String to, String text) {
+        trace.time("reply", () -> replyDispatcher.enqueue(to, text));
+    }
+}
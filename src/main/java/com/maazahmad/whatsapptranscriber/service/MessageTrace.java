@@ -0,0 +1,102 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Stage timings for one inbound message. Durations are buffered until {@link #finish} because the
+ * intent and outcome tags are only known at the end; a stage that runs more than once (e.g. two
+ * replies) is summed.
+ */
+public class MessageTrace {
+
+    // Intent comes from LLM output, so anything unexpected is folded into OTHER to bound tag cardinality
+    private static final Set<String> KNOWN_INTENTS = Set.of(
+            "LOG_EXPENSE", "QUERY_SPENDING", "EDIT_EXPENSE", "UNDO_LAST", "REDO_LAST", "IRRELEVANT",
+            "ONBOARDING", "REFRESH", "GREETING", "UNKNOWN_TEXT", "UNREGISTERED", "NONE");
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final String messageId;
+    private final String type;
+    private final long receivedAtNanos;
+    private final long startedAtNanos = System.nanoTime();
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+
+    private String intent = "NONE";
+    private String outcome = "success";
+
+    public MessageTrace(String messageId, String type, long receivedAtNanos) {
+        this.messageId = messageId;
+        this.type = type != null ? type : "unknown";
+        this.receivedAtNanos = receivedAtNanos;
+    }
+
+    public <T> T time(String stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void record(String stage, long nanos) {
+        stages.merge(stage, nanos, Long::sum);
+    }
+
+    public void time(String stage, Runnable work) {
+        time(stage, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public void intent(String intent) {
+        this.intent = KNOWN_INTENTS.contains(intent) ? intent : "OTHER";
+    }
+
+    public void outcome(String outcome) {
+        this.outcome = outcome;
+    }
+
+    /**
+     * Records {@code message.stage} per stage and {@code message.end_to_end} (webhook receipt to
+     * done, queue wait included), and returns the key=value summary line for the log.
+     */
+    public String finish(MeterRegistry meterRegistry) {
+        long now = System.nanoTime();
+        StringBuilder line = new StringBuilder()
+                .append("message_trace id=").append(messageId)
+                .append(" type=").append(type)
+                .append(" intent=").append(intent)
+                .append(" outcome=").append(outcome)
+                .append(" total_ms=").append(TimeUnit.NANOSECONDS.toMillis(now - receivedAtNanos))
+                .append(" queue_ms=").append(TimeUnit.NANOSECONDS.toMillis(startedAtNanos - receivedAtNanos));
+
+        stages.forEach((stage, nanos) -> {
+            Timer.builder("message.stage")
+                    .description("Time spent in one processing stage of a message")
+                    .tags("stage", stage, "intent", intent, "outcome", outcome)
+                    .publishPercentiles(PERCENTILES)
+                    .register(meterRegistry)
+                    .record(nanos, TimeUnit.NANOSECONDS);
+            line.append(' ').append(stage).append("_ms=").append(TimeUnit.NANOSECONDS.toMillis(nanos));
+        });
+
+        Timer.builder("message.end_to_end")
+                .description("Webhook receipt to last reply queued, per message")
+                .tags("type", type, "intent", intent, "outcome", outcome)
+                .publishPercentiles(PERCENTILES)
+                .register(meterRegistry)
+                .record(now - receivedAtNanos, TimeUnit.NANOSECONDS);
+
+        return line.toString();
+    }
+}
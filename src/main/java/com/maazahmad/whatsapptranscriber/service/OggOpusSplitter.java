@@ -0,0 +1,321 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts an Ogg/Opus voice note into standalone Ogg/Opus files of roughly {@code chunkDuration}, so
+ * they can be transcribed in parallel. Cuts fall on page boundaries that start a new packet; within
+ * {@code silenceWindow} past the target length the page with the fewest bytes per sample is chosen,
+ * since Opus spends almost nothing on silence, so words are rarely cut in half.
+ * <p>
+ * Every chunk repeats the OpusHead/OpusTags header pages, gets its own page sequence numbers,
+ * granule positions rebased to the chunk start, an end-of-stream flag and recomputed page CRCs.
+ * Pages are only located, never copied: a chunk is a list of page offsets into the note and its
+ * bytes are produced page by page while it is being uploaded.
+ */
+final class OggOpusSplitter {
+
+    private static final int SAMPLE_RATE = 48_000;
+    private static final int PAGE_HEADER_BYTES = 27;
+    private static final int FLAG_CONTINUED = 0x01;
+    private static final int FLAG_BOS = 0x02;
+    private static final int FLAG_EOS = 0x04;
+    private static final long NO_GRANULE = -1;
+    private static final byte[] CAPTURE = "OggS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OPUS_HEAD = "OpusHead".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int r = i << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                r = (r & 0x80000000) != 0 ? (r << 1) ^ 0x04C11DB7 : r << 1;
+            }
+            CRC_TABLE[i] = r;
+        }
+    }
+
+    private OggOpusSplitter() {
+    }
+
+    /**
+     * Returns the chunks, or an empty list when the input is not Ogg/Opus, is shorter than
+     * {@code minDuration}, or would not split into more than one chunk. Reads {@code data} with
+     * absolute gets only; the chunks refer back into it by offset.
+     */
+    static List<Chunk> split(ByteBuffer data, Duration minDuration, Duration chunkDuration, Duration silenceWindow) {
+        List<Page> pages = readPages(data);
+        if (pages.isEmpty() || !pages.get(0).payloadStartsWith(data, OPUS_HEAD)) return List.of();
+        int preSkip = pages.get(0).payloadUInt16(data, 10);
+
+        // OpusHead and OpusTags; the first audio packet always starts on a fresh page
+        int headerPages = 0;
+        for (int packets = 0; headerPages < pages.size() && packets < 2; headerPages++) {
+            packets += pages.get(headerPages).completedPackets(data);
+        }
+        List<Page> headers = pages.subList(0, headerPages);
+        List<Page> audio = pages.subList(headerPages, pages.size());
+
+        long totalSamples = lastGranule(audio) - preSkip;
+        if (audio.isEmpty() || totalSamples < samples(minDuration)) return List.of();
+
+        List<int[]> ranges = plan(audio, samples(chunkDuration), samples(silenceWindow));
+        if (ranges.size() < 2) return List.of();
+
+        List<Chunk> chunks = new ArrayList<>(ranges.size());
+        long base = 0;
+        for (int c = 0; c < ranges.size(); c++) {
+            int[] range = ranges.get(c);
+            // Decoders drop pre-skip samples at the start of every stream, so leave room for them
+            long shift = c == 0 ? 0 : base - preSkip;
+            chunks.add(new Chunk(headers, audio.subList(range[0], range[1] + 1), shift));
+            base = lastGranule(audio.subList(0, range[1] + 1));
+        }
+        return chunks;
+    }
+
+    // Inclusive [first, last] page ranges of the audio pages for each chunk
+    private static List<int[]> plan(List<Page> audio, long chunkSamples, long windowSamples) {
+        List<int[]> ranges = new ArrayList<>();
+        long end = lastGranule(audio);
+        int start = 0;
+        long base = 0;
+        while (start < audio.size()) {
+            // A short tail is not worth a request of its own
+            if (end - base < chunkSamples + chunkSamples / 4) {
+                ranges.add(new int[]{start, audio.size() - 1});
+                break;
+            }
+
+            int best = -1;
+            double bestBytesPerSample = Double.MAX_VALUE;
+            long previous = base;
+            for (int i = start; i < audio.size(); i++) {
+                long granule = audio.get(i).granule();
+                if (granule == NO_GRANULE) continue;
+                long elapsed = granule - base;
+                if (elapsed > chunkSamples + windowSamples && best >= 0) break;
+
+                boolean cleanCut = i + 1 == audio.size() || !audio.get(i + 1).continued();
+                if (elapsed >= chunkSamples && cleanCut) {
+                    double bytesPerSample = audio.get(i).payloadLength() / (double) Math.max(1, granule - previous);
+                    if (bytesPerSample < bestBytesPerSample) {
+                        bestBytesPerSample = bytesPerSample;
+                        best = i;
+                    }
+                }
+                previous = granule;
+            }
+
+            int last = best >= 0 ? best : audio.size() - 1;
+            ranges.add(new int[]{start, last});
+            base = audio.get(last).granule();
+            start = last + 1;
+        }
+        return ranges;
+    }
+
+    private static List<Page> readPages(ByteBuffer data) {
+        List<Page> pages = new ArrayList<>();
+        int offset = 0;
+        int limit = data.limit();
+        while (offset < limit) {
+            if (limit - offset < PAGE_HEADER_BYTES) return List.of();
+            for (int i = 0; i < CAPTURE.length; i++) {
+                if (data.get(offset + i) != CAPTURE[i]) return List.of();
+            }
+
+            int segments = data.get(offset + 26) & 0xFF;
+            int headerLength = PAGE_HEADER_BYTES + segments;
+            if (limit - offset < headerLength) return List.of();
+            int payload = 0;
+            for (int i = 0; i < segments; i++) payload += data.get(offset + PAGE_HEADER_BYTES + i) & 0xFF;
+            if (limit - offset - headerLength < payload) return List.of();
+
+            pages.add(new Page(offset, headerLength, payload, data.get(offset + 5), readLong(data, offset + 6)));
+            offset += headerLength + payload;
+        }
+        return pages;
+    }
+
+    private static long lastGranule(List<Page> pages) {
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            if (pages.get(i).granule() != NO_GRANULE) return pages.get(i).granule();
+        }
+        return 0;
+    }
+
+    private static long samples(Duration duration) {
+        return duration.toMillis() * SAMPLE_RATE / 1000;
+    }
+
+    // Ogg's CRC-32: polynomial 0x04C11DB7, not reflected, zero initial value, no final xor
+    private static int crc(int crc, byte b) {
+        return (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xFF];
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) bytes[offset + i] = (byte) (value >>> (8 * i));
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) value = (value << 8) | (bytes[offset + i] & 0xFF);
+        return value;
+    }
+
+    // Ogg fields are little-endian whatever order the buffer is set to
+    private static long readLong(ByteBuffer data, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) value = (value << 8) | (data.get(offset + i) & 0xFF);
+        return value;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) bytes[offset + i] = (byte) (value >>> (8 * i));
+    }
+
+    /**
+     * One standalone Ogg/Opus file, described by the pages it is made of.
+     */
+    static final class Chunk {
+        private final Page[] pages;
+        private final int headerPages;
+        private final long granuleShift;
+        private final long length;
+
+        private Chunk(List<Page> headers, List<Page> audio, long granuleShift) {
+            this.pages = new Page[headers.size() + audio.size()];
+            this.headerPages = headers.size();
+            this.granuleShift = granuleShift;
+            long length = 0;
+            int i = 0;
+            for (Page page : headers) {
+                pages[i++] = page;
+                length += page.length();
+            }
+            for (Page page : audio) {
+                pages[i++] = page;
+                length += page.length();
+            }
+            this.length = length;
+        }
+
+        long length() {
+            return length;
+        }
+
+        /**
+         * Streams the chunk out of the same content {@link #split} was given.
+         */
+        InputStream open(ByteBuffer data) {
+            return new ChunkInputStream(data);
+        }
+
+        private final class ChunkInputStream extends InputStream {
+            private final ByteBuffer data;
+            private int page = -1;
+            private byte[] header = new byte[0];
+            private int position;
+
+            ChunkInputStream(ByteBuffer data) {
+                this.data = data;
+            }
+
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                if (page >= 0 && position == pages[page].length()) nextPage();
+                if (page < 0) nextPage();
+                if (page == pages.length) return -1;
+
+                Page current = pages[page];
+                int n;
+                if (position < header.length) {
+                    n = Math.min(len, header.length - position);
+                    System.arraycopy(header, position, b, off, n);
+                } else {
+                    n = Math.min(len, current.length() - position);
+                    data.get(current.offset() + position, b, off, n);
+                }
+                position += n;
+                return n;
+            }
+
+            // Rewrites the next page's header (flags, granule, sequence, CRC); its payload is read in place
+            private void nextPage() {
+                page++;
+                position = 0;
+                if (page == pages.length) return;
+                Page current = pages[page];
+                header = new byte[current.headerLength()];
+                data.get(current.offset(), header);
+
+                if (page < headerPages) {
+                    header[5] &= (byte) ~FLAG_EOS;
+                } else {
+                    header[5] &= (byte) ~FLAG_BOS;
+                    if (page == pages.length - 1) {
+                        header[5] |= FLAG_EOS;
+                    } else {
+                        header[5] &= (byte) ~FLAG_EOS;
+                    }
+                    long granule = readLong(header, 6);
+                    if (granule != NO_GRANULE) writeLong(header, 6, granule - granuleShift);
+                }
+                writeInt(header, 18, page);
+                writeInt(header, 22, 0);
+
+                int crc = 0;
+                for (byte b : header) crc = crc(crc, b);
+                int payloadStart = current.offset() + current.headerLength();
+                for (int i = 0; i < current.payloadLength(); i++) crc = crc(crc, data.get(payloadStart + i));
+                writeInt(header, 22, crc);
+            }
+        }
+    }
+
+    private record Page(int offset, int headerLength, int payloadLength, byte flags, long granule) {
+
+        int length() {
+            return headerLength + payloadLength;
+        }
+
+        boolean continued() {
+            return (flags & FLAG_CONTINUED) != 0;
+        }
+
+        // Lacing values below 255 end a packet
+        int completedPackets(ByteBuffer data) {
+            int packets = 0;
+            for (int i = PAGE_HEADER_BYTES; i < headerLength; i++) {
+                if ((data.get(offset + i) & 0xFF) < 255) packets++;
+            }
+            return packets;
+        }
+
+        boolean payloadStartsWith(ByteBuffer data, byte[] prefix) {
+            if (payloadLength < prefix.length) return false;
+            for (int i = 0; i < prefix.length; i++) {
+                if (data.get(offset + headerLength + i) != prefix[i]) return false;
+            }
+            return true;
+        }
+
+        int payloadUInt16(ByteBuffer data, int at) {
+            int index = offset + headerLength + at;
+            return (data.get(index) & 0xFF) | (data.get(index + 1) & 0xFF) << 8;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Smooth, blocking rate limiter: callers are spaced evenly at {@code permitsPerSecond}.
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private long nextFreeNanos = System.nanoTime();
+
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) throw new IllegalArgumentException("permitsPerSecond must be positive");
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    /**
+     * Blocks until the caller's slot comes up and returns how long it waited, in nanoseconds.
+     */
+    public long acquire() {
+        long waitNanos = reserve();
+        long deadline = System.nanoTime() + waitNanos;
+        long remaining = waitNanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Takes the next slot without blocking and returns how long the caller must wait before using
+     * it, in nanoseconds.
+     */
+    public synchronized long reserve() {
+        long now = System.nanoTime();
+        long slot = Math.max(now, nextFreeNanos);
+        nextFreeNanos = slot + intervalNanos;
+        return slot - now;
+    }
+}
@@ -0,0 +1,255 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.maazahmad.whatsapptranscriber.model.FailedReply;
+import com.maazahmad.whatsapptranscriber.repository.FailedReplyRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outbound WhatsApp replies. {@link #enqueue} returns immediately; replies to the same recipient are
+ * sent one at a time in order, paced first by a per-recipient rate and then by Meta's per-number
+ * throughput. Waits and retry backoff are scheduled on the {@link TaskScheduler}, so no thread is
+ * parked while a reply waits; only the Graph call itself runs on {@code replyExecutor}.
+ * <p>
+ * Throttling (429, Graph rate-limit codes) and 5xx responses are retried with jittered backoff before
+ * the recipient's next reply is started, so a retried reply is never overtaken by a later one. I/O
+ * errors are retried only when the connection was never made: a POST that timed out may already
+ * have been delivered. Anything else, or a reply that runs out of attempts, is dead-lettered to
+ * {@code dead_letter_replies}.
+ */
+@Slf4j
+@Service
+public class ReplyDispatcher {
+
+    // Graph error codes that mean "try again later": app/WABA/number throughput, pair rate limit, temporary errors
+    private static final Set<String> RETRYABLE_GRAPH_CODES = Set.of("1", "2", "4", "80007", "130429", "131000", "131016", "131056");
+
+    private final WhatsAppService whatsAppService;
+    private final FailedReplyRepository failedReplyRepository;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolTaskExecutor executor;
+    private final TaskScheduler taskScheduler;
+    private final int mailboxCapacity;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final RateLimiter numberLimiter;
+    private final Cache<String, RateLimiter> recipientLimiters;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Timer sendTimer;
+    private final Timer latencyTimer;
+
+    @Value("${whatsapp.outbound.per-recipient-per-second:1}")
+    private double perRecipientPerSecond;
+
+    @Value("${whatsapp.outbound.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${whatsapp.outbound.base-backoff:PT1S}")
+    private Duration baseBackoff;
+
+    @Value("${whatsapp.outbound.max-backoff:PT30S}")
+    private Duration maxBackoff;
+
+    public ReplyDispatcher(WhatsAppService whatsAppService,
+                           FailedReplyRepository failedReplyRepository,
+                           ObjectMapper objectMapper,
+                           @Qualifier("replyExecutor") ThreadPoolTaskExecutor executor,
+                           TaskScheduler taskScheduler,
+                           @Value("${whatsapp.outbound.mailbox-capacity:50}") int mailboxCapacity,
+                           @Value("${whatsapp.outbound.per-second:80}") double perSecond,
+                           MeterRegistry meterRegistry) {
+        this.whatsAppService = whatsAppService;
+        this.failedReplyRepository = failedReplyRepository;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.executor = executor;
+        this.taskScheduler = taskScheduler;
+        this.mailboxCapacity = mailboxCapacity;
+        this.numberLimiter = new RateLimiter(perSecond);
+        this.recipientLimiters = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+
+        this.sendTimer = Timer.builder("whatsapp.reply.send")
+                .description("Graph API round-trip per send attempt")
+                .register(meterRegistry);
+        this.latencyTimer = Timer.builder("whatsapp.reply.latency")
+                .description("Enqueue to delivered, including rate-limit waits and retries")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("whatsapp.reply.queue.depth", pending, AtomicInteger::get)
+                .description("Replies accepted but not yet delivered or dead-lettered")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues a reply without blocking. The future completes once Meta accepted it, or exceptionally
+     * once it has been dead-lettered.
+     */
+    public CompletableFuture<Void> enqueue(String to, String text) {
+        Reply reply = new Reply(to, text, System.nanoTime(), new CompletableFuture<>());
+        CompletableFuture<?>[] turn = {null};
+        lanes.compute(to, (k, existing) -> {
+            Lane lane = existing != null ? existing : new Lane();
+            if (lane.queued >= mailboxCapacity) return existing;
+            lane.queued++;
+            // The next reply starts only once this one is delivered or dead-lettered
+            turn[0] = lane.tail;
+            lane.tail = reply.result.handle((r, e) -> null);
+            return lane;
+        });
+
+        if (turn[0] == null) {
+            deadLetter(reply, "queue_full", "Mailbox full for " + to, 0);
+            return reply.result;
+        }
+        pending.incrementAndGet();
+        reply.result.whenComplete((r, e) -> {
+            pending.decrementAndGet();
+            lanes.computeIfPresent(to, (k, lane) -> --lane.queued == 0 ? null : lane);
+        });
+        turn[0].thenRun(() -> attempt(reply, 1, baseBackoff.toMillis()));
+        return reply.result;
+    }
+
+    // Recipient slot first, so a chatty recipient never holds one of the number's slots while it waits
+    private void attempt(Reply reply, int attempt, long backoffMillis) {
+        long recipientWait = recipientLimiters.get(reply.to, k -> new RateLimiter(perRecipientPerSecond)).reserve();
+        after(recipientWait, () -> after(numberLimiter.reserve(), () -> send(reply, attempt, backoffMillis)));
+    }
+
+    private void send(Reply reply, int attempt, long backoffMillis) {
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    whatsAppService.sendReply(reply.to, reply.text);
+                    sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    latencyTimer.record(System.nanoTime() - reply.queuedAtNanos, TimeUnit.NANOSECONDS);
+                    reply.result.complete(null);
+                } catch (RestClientException e) {
+                    sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    retryOrDeadLetter(reply, attempt, backoffMillis, e);
+                } catch (RuntimeException e) {
+                    deadLetter(reply, "unknown", e.getMessage(), attempt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            deadLetter(reply, "queue_full", e.getMessage(), attempt);
+        }
+    }
+
+    private void retryOrDeadLetter(Reply reply, int attempt, long backoffMillis, RestClientException e) {
+        String code = failureCode(e);
+        if (!isRetryable(e, code) || attempt >= maxAttempts) {
+            deadLetter(reply, code, describe(e), attempt);
+            return;
+        }
+
+        meterRegistry.counter("whatsapp.reply.failures", "code", code, "outcome", "retried").increment();
+        long delayMillis = backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+        log.warn("Reply to {} failed with {} (attempt {}), retrying in {} ms", reply.to, code, attempt, delayMillis);
+        long nextBackoff = Math.min(backoffMillis * 2, maxBackoff.toMillis());
+        after(TimeUnit.MILLISECONDS.toNanos(delayMillis), () -> attempt(reply, attempt + 1, nextBackoff));
+    }
+
+    private void after(long delayNanos, Runnable task) {
+        if (delayNanos <= 0) {
+            task.run();
+            return;
+        }
+        taskScheduler.schedule(task, Instant.now().plusNanos(delayNanos));
+    }
+
+    private void deadLetter(Reply reply, String code, String error, int attempts) {
+        deadLetter(reply.to, reply.text, code, error, attempts, reply.result);
+    }
+
+    private void deadLetter(String to, String text, String code, String error, int attempts, CompletableFuture<Void> result) {
+        meterRegistry.counter("whatsapp.reply.failures", "code", code, "outcome", "dead_lettered").increment();
+        log.error("Dead-lettering reply to {} after {} attempt(s): {} {}", to, attempts, code, error);
+        try {
+            failedReplyRepository.save(FailedReply.builder()
+                    .recipient(to)
+                    .body(truncate(text, 4096))
+                    .failureCode(code)
+                    .error(truncate(error, 1024))
+                    .attempts(attempts)
+                    .failedAt(Instant.now())
+                    .build());
+        } catch (RuntimeException e) {
+            log.error("Could not store dead-lettered reply to {}", to, e);
+        }
+        result.completeExceptionally(new IllegalStateException("Reply to " + to + " was not delivered (" + code + ")"));
+    }
+
+    // Graph error code from the body when Meta sent one, otherwise the HTTP status
+    private String failureCode(RestClientException e) {
+        if (e instanceof ResourceAccessException) return "io";
+        if (!(e instanceof HttpStatusCodeException status)) return "unknown";
+        try {
+            JsonNode code = objectMapper.readTree(status.getResponseBodyAsString()).path("error").path("code");
+            if (code.canConvertToInt()) return code.asText();
+        } catch (Exception ignored) {
+            // Not a Graph error body
+        }
+        return String.valueOf(status.getStatusCode().value());
+    }
+
+    private static boolean isRetryable(RestClientException e, String code) {
+        if (e instanceof ResourceAccessException) {
+            // Only safe when the request never left: after a read timeout Meta may have delivered it
+            return e.getCause() instanceof ConnectException || e.getCause() instanceof UnknownHostException;
+        }
+        if (e instanceof HttpStatusCodeException status) {
+            int httpStatus = status.getStatusCode().value();
+            return httpStatus == 429 || httpStatus >= 500 || RETRYABLE_GRAPH_CODES.contains(code);
+        }
+        return false;
+    }
+
+    private static String describe(RestClientException e) {
+        return e instanceof HttpStatusCodeException status ? status.getResponseBodyAsString() : e.getMessage();
+    }
+
+    private static String truncate(String value, int max) {
+        return value == null || value.length() <= max ? value : value.substring(0, max);
+    }
+
+    private record Reply(String to, String text, long queuedAtNanos, CompletableFuture<Void> result) {
+    }
+
+    // Guarded by the map's per-key lock (all access goes through compute)
+    private static final class Lane {
+        private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+        private int queued;
+    }
+}
@@ -0,0 +1,313 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.maazahmad.whatsapptranscriber.model.Expense;
+import com.maazahmad.whatsapptranscriber.repository.ExpenseRepository;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps each user's Google Sheet in step with the local {@code expenses} table. Operations for one
+ * spreadsheet run strictly in submission order; different spreadsheets sync in parallel.
+ * Every operation re-reads the expense when it runs. A local change bumps the expense's version and
+ * only a successful push marks that version synced, so {@link #resyncPending()} re-pushes whatever a
+ * failed push left behind and {@link #reconcile} never overwrites it with the sheet's older values.
+ * <p>
+ * Appends are write-behind: rows for the same spreadsheet are held for up to
+ * {@code ledger.sync.batch-window} (or until {@code ledger.sync.batch-max-rows} pile up) and then
+ * written with a single append call. Any other operation on that sheet flushes pending appends first.
+ * Each appended row carries its expense id in a hidden column; before re-appending rows whose earlier
+ * append may have landed, the sheet's id column is checked so the same expense is never written twice.
+ */
+@Slf4j
+@Service
+public class SheetSyncService {
+
+    private final GoogleSheetsService googleSheetsService;
+    private final ExpenseRepository expenseRepository;
+    private final ExpenseIndexService expenseIndexService;
+    private final GoogleQuotaGovernor quotaGovernor;
+    private final ThreadPoolTaskExecutor executor;
+    private final TaskScheduler taskScheduler;
+
+    private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    private final Map<String, List<PendingAppend>> pendingAppends = new ConcurrentHashMap<>();
+
+    @Value("${ledger.sync.batch-window:PT0.5S}")
+    private Duration batchWindow;
+
+    @Value("${ledger.sync.batch-max-rows:50}")
+    private int batchMaxRows;
+
+    public SheetSyncService(GoogleSheetsService googleSheetsService,
+                            ExpenseRepository expenseRepository,
+                            ExpenseIndexService expenseIndexService,
+                            GoogleQuotaGovernor quotaGovernor,
+                            @Qualifier("sheetSyncExecutor") ThreadPoolTaskExecutor executor,
+                            TaskScheduler taskScheduler) {
+        this.googleSheetsService = googleSheetsService;
+        this.expenseRepository = expenseRepository;
+        this.expenseIndexService = expenseIndexService;
+        this.quotaGovernor = quotaGovernor;
+        this.executor = executor;
+        this.taskScheduler = taskScheduler;
+    }
+
+    /**
+     * Queues the expense for the next batched append. The future completes with its sheet row once
+     * the batch has been written, or exceptionally if the write failed (it is retried by resync).
+     */
+    public CompletableFuture<Integer> append(Expense expense) {
+        return appendAll(List.of(expense)).get(0);
+    }
+
+    /**
+     * Like {@link #append} for several expenses of one ledger; they are queued together so they land
+     * in the same append call (unless that fills the batch past {@code batch-max-rows}).
+     */
+    public List<CompletableFuture<Integer>> appendAll(List<Expense> expenses) {
+        return appendAll(expenses, false);
+    }
+
+    private List<CompletableFuture<Integer>> appendAll(List<Expense> expenses, boolean retry) {
+        if (expenses.isEmpty()) return List.of();
+        String spreadsheetId = expenses.get(0).getSpreadsheetId();
+        List<PendingAppend> entries = expenses.stream()
+                .map(expense -> new PendingAppend(expense.getId(), retry, new CompletableFuture<>()))
+                .toList();
+        boolean[] firstInBatch = {false};
+        boolean[] batchFull = {false};
+
+        pendingAppends.compute(spreadsheetId, (key, batch) -> {
+            if (batch == null) {
+                batch = new ArrayList<>();
+                firstInBatch[0] = true;
+            }
+            batch.addAll(entries);
+            batchFull[0] = batch.size() >= batchMaxRows;
+            return batch;
+        });
+
+        if (batchFull[0]) {
+            enqueueFlush(spreadsheetId);
+        } else if (firstInBatch[0]) {
+            taskScheduler.schedule(() -> enqueueFlush(spreadsheetId), Instant.now().plus(batchWindow));
+        }
+        return entries.stream().map(PendingAppend::row).toList();
+    }
+
+    public CompletableFuture<Void> update(Expense expense) {
+        flushPendingAppends(expense.getSpreadsheetId());
+        return enqueue(expense.getSpreadsheetId(), "update", () -> pushUpdate(expense.getId()));
+    }
+
+    public CompletableFuture<Void> delete(Expense expense) {
+        flushPendingAppends(expense.getSpreadsheetId());
+        return enqueue(expense.getSpreadsheetId(), "delete", () -> pushDelete(expense.getId()));
+    }
+
+    /**
+     * Pulls manual edits made directly in the sheet back into the local store.
+     */
+    public CompletableFuture<Void> reconcile(String spreadsheetId) {
+        flushPendingAppends(spreadsheetId);
+        return enqueue(spreadsheetId, "reconcile", () -> pullSheet(spreadsheetId));
+    }
+
+    /**
+     * Re-queues anything a previous push didn't finish (API errors, restarts).
+     */
+    public void resyncPending() {
+        // A failed append may still have landed, so these are matched against the sheet before re-appending
+        expenseRepository.findBySheetRowIsNullAndDeletedFalse().stream()
+                .collect(Collectors.groupingBy(Expense::getSpreadsheetId))
+                .values()
+                .forEach(expenses -> appendAll(expenses, true));
+        expenseRepository.findSheetDirty().forEach(this::update);
+        expenseRepository.findByDeletedTrueAndSheetRowIsNotNull().forEach(this::delete);
+    }
+
+    private CompletableFuture<Void> enqueue(String spreadsheetId, String operation, Runnable op) {
+        // Sync threads call Google on behalf of whoever queued the operation
+        GoogleQuotaGovernor.Priority priority = quotaGovernor.currentPriority();
+        CompletableFuture<Void> next = tails.compute(spreadsheetId, (key, tail) -> {
+            CompletableFuture<Void> previous = tail == null ? CompletableFuture.completedFuture(null) : tail;
+            return previous.exceptionally(e -> null).thenRunAsync(() -> {
+                try {
+                    quotaGovernor.withPriority(priority, () -> {
+                        op.run();
+                        return null;
+                    });
+                } catch (Exception e) {
+                    log.warn("Sheet sync {} failed for {}: {}", operation, spreadsheetId, e.getMessage());
+                }
+            }, executor);
+        });
+        next.whenComplete((r, e) -> tails.remove(spreadsheetId, next));
+        return next;
+    }
+
+    private void flushPendingAppends(String spreadsheetId) {
+        if (pendingAppends.containsKey(spreadsheetId)) {
+            enqueueFlush(spreadsheetId);
+        }
+    }
+
+    private void enqueueFlush(String spreadsheetId) {
+        enqueue(spreadsheetId, "append", () -> flushAppends(spreadsheetId));
+    }
+
+    @SneakyThrows
+    private void flushAppends(String spreadsheetId) {
+        List<PendingAppend> batch = pendingAppends.remove(spreadsheetId);
+        if (batch == null || batch.isEmpty()) return;
+
+        List<Long> ids = batch.stream().map(PendingAppend::expenseId).distinct().toList();
+        Map<Long, Expense> expenses = new HashMap<>();
+        expenseRepository.findAllById(ids).forEach(e -> expenses.put(e.getId(), e));
+        if (batch.stream().anyMatch(PendingAppend::retry)) {
+            adoptAppendedRows(spreadsheetId, expenses);
+        }
+
+        // Keep submission order; skip rows undone in the meantime or already synced by a resync
+        List<Expense> toAppend = ids.stream()
+                .map(expenses::get)
+                .filter(e -> e != null && !e.isDeleted() && e.getSheetRow() == null)
+                .toList();
+
+        try {
+            if (!toAppend.isEmpty()) {
+                List<List<Object>> rows = toAppend.stream().map(Expense::toSheetRow).toList();
+                int firstRow = googleSheetsService.appendRows(spreadsheetId, rows);
+                for (int i = 0; i < toAppend.size(); i++) {
+                    Expense expense = toAppend.get(i);
+                    expense.setSheetRow(firstRow + i);
+                    expenseRepository.markAppended(expense.getId(), expense.getSheetRow(), expense.getLocalVersion());
+                }
+            }
+        } catch (Exception e) {
+            batch.forEach(p -> p.row().completeExceptionally(e));
+            throw e;
+        }
+
+        batch.forEach(p -> {
+            Expense expense = expenses.get(p.expenseId());
+            p.row().complete(expense != null ? expense.getSheetRow() : null);
+        });
+    }
+
+    // Rows an earlier, seemingly failed append did write: record their sheet row instead of appending again
+    private void adoptAppendedRows(String spreadsheetId, Map<Long, Expense> expenses) {
+        List<List<Object>> idColumn = googleSheetsService.readIdColumn(spreadsheetId);
+        if (idColumn == null) return;
+        for (int i = 1; i < idColumn.size(); i++) {
+            List<Object> cells = idColumn.get(i);
+            Expense expense = cells.isEmpty() ? null : expenses.get(Expense.parseId(cells.get(0)));
+            if (expense != null && expense.getSheetRow() == null) {
+                adopt(expense, i + 1);
+            }
+        }
+    }
+
+    // Keeps the synced version as is: if the expense changed since that append it is still dirty and gets pushed
+    private void adopt(Expense expense, int sheetRow) {
+        expense.setSheetRow(sheetRow);
+        expenseRepository.markAppended(expense.getId(), sheetRow, expense.getSyncedVersion());
+    }
+
+    private void pushUpdate(Long expenseId) {
+        expenseRepository.findById(expenseId).ifPresent(expense -> {
+            // Not in the sheet yet: the pending (or resynced) append will carry the new values
+            if (expense.isDeleted() || expense.getSheetRow() == null) return;
+            // An earlier push (or a resync) already sent this version
+            if (!expense.isSheetDirty()) return;
+            googleSheetsService.updateRow(expense.getSpreadsheetId(), expense.getSheetRow(), expense.toSheetRow());
+            expenseRepository.markSynced(expense.getId(), expense.getLocalVersion());
+        });
+    }
+
+    private void pushDelete(Long expenseId) {
+        expenseRepository.findById(expenseId).ifPresent(expense -> {
+            // Redone (or already cleared) since the delete was queued
+            if (!expense.isDeleted() || expense.getSheetRow() == null) return;
+            googleSheetsService.clearRow(expense.getSpreadsheetId(), expense.getSheetRow());
+            // The row stays soft-deleted in the store so a redo can bring it back
+            expenseRepository.clearSheetRow(expense.getId());
+        });
+    }
+
+    private void pullSheet(String spreadsheetId) {
+        List<List<Object>> rows = googleSheetsService.readAllRows(spreadsheetId);
+        if (rows == null) rows = List.of();
+
+        Map<Integer, Expense> synced = new HashMap<>();
+        Set<Integer> pendingClears = new HashSet<>();
+        Map<Long, Expense> unplaced = new HashMap<>();
+        for (Expense expense : expenseRepository.findBySpreadsheetIdOrderByIdAsc(spreadsheetId)) {
+            if (expense.getSheetRow() == null) unplaced.put(expense.getId(), expense);
+            else if (expense.isDeleted()) pendingClears.add(expense.getSheetRow());
+            else synced.put(expense.getSheetRow(), expense);
+        }
+
+        int added = 0, edited = 0, removed = 0;
+        // Row 1 is the header
+        for (int i = 1; i < rows.size(); i++) {
+            int rowNumber = i + 1;
+            List<Object> row = rows.get(i);
+            Expense local = synced.remove(rowNumber);
+            // A local change the sheet hasn't received yet wins; resync pushes it over the sheet's values
+            if (local != null && local.isSheetDirty()) continue;
+
+            if (Expense.isBlankSheetRow(row)) {
+                if (local != null) {
+                    expenseRepository.markRemovedFromSheet(local.getId());
+                    removed++;
+                }
+            } else if (local == null) {
+                if (pendingClears.contains(rowNumber)) continue;
+                // Written by an append we saw fail; a deleted one is cleared by the next resync
+                Expense appended = unplaced.remove(Expense.sheetRowId(row));
+                if (appended != null) {
+                    adopt(appended, rowNumber);
+                    continue;
+                }
+                Expense manual = Expense.builder().spreadsheetId(spreadsheetId).sheetRow(rowNumber).build();
+                manual.applySheetRow(row);
+                expenseRepository.save(manual);
+                added++;
+            } else if (!local.matchesSheetRow(row)) {
+                local.applySheetRow(row);
+                expenseRepository.save(local);
+                edited++;
+            }
+        }
+        // Rows past the end of the sheet were deleted by hand
+        synced.values().removeIf(Expense::isSheetDirty);
+        synced.values().forEach(expense -> expenseRepository.markRemovedFromSheet(expense.getId()));
+        removed += synced.size();
+
+        if (added + edited + removed > 0) {
+            expenseIndexService.invalidate(spreadsheetId);
+            log.info("Reconciled {}: {} added, {} edited, {} removed in sheet", spreadsheetId, added, edited, removed);
+        }
+    }
+
+    private record PendingAppend(Long expenseId, boolean retry, CompletableFuture<Integer> row) {
+    }
+}
@@ -0,0 +1,326 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.function.Function;
+
+/**
+ * A downloaded media file that can be read any number of times without re-downloading it.
+ * Small files stay on the heap; anything above the threshold is spooled to a temp file and
+ * memory-mapped, so long voice notes don't sit in the Java heap while they wait for Whisper.
+ * Always close it to delete the temp file; the mapping is released once the last stream opened on
+ * it has been closed too.
+ */
+@Slf4j
+public class SpooledMedia implements AutoCloseable {
+
+    private static final int INITIAL_HEAP_BUFFER = 8 * 1024;
+    private static final int COPY_BUFFER = 64 * 1024;
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Mappings are then released by the garbage collector
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final byte[] heap;
+    private final Path file;
+    private final long size;
+    private final String sha256;
+
+    // Guarded by this
+    private MappedByteBuffer mapped;
+    private int openStreams;
+    private boolean closed;
+
+    private SpooledMedia(byte[] heap, Path file, MappedByteBuffer mapped, long size, String sha256) {
+        this.heap = heap;
+        this.file = file;
+        this.mapped = mapped;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Drains the stream, failing once more than {@code maxBytes} have been read. The SHA-256 of the
+     * content is computed on the way through.
+     */
+    public static SpooledMedia spool(InputStream source, int heapThreshold, long maxBytes) throws IOException {
+        if (heapThreshold <= 0) throw new IllegalArgumentException("heapThreshold must be positive");
+        MessageDigest digest = sha256Digest();
+        InputStream in = new DigestInputStream(source, digest);
+
+        // Grown as data arrives, so a short text or image doesn't cost a full threshold-sized array
+        byte[] head = new byte[Math.min(heapThreshold, INITIAL_HEAP_BUFFER)];
+        int headLength = 0;
+        while (headLength < heapThreshold) {
+            if (headLength == head.length) head = Arrays.copyOf(head, (int) Math.min(heapThreshold, 2L * head.length));
+            int read = in.read(head, headLength, head.length - headLength);
+            if (read == -1) break;
+            headLength += read;
+        }
+
+        if (headLength < heapThreshold) {
+            checkCap(headLength, maxBytes);
+            return new SpooledMedia(Arrays.copyOf(head, headLength), null, null, headLength, HexFormat.of().formatHex(digest.digest()));
+        }
+
+        Path file = Files.createTempFile("media-", ".spool");
+        try {
+            long total = headLength;
+            checkCap(total, maxBytes);
+            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.WRITE)) {
+                out.write(head, 0, headLength);
+                byte[] buffer = new byte[COPY_BUFFER];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    total += read;
+                    checkCap(total, maxBytes);
+                    out.write(buffer, 0, read);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, total);
+                return new SpooledMedia(null, file, mapped, total, HexFormat.of().formatHex(digest.digest()));
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Hex SHA-256 of the content, usable as a content-addressed cache key.
+     */
+    public String sha256() {
+        return sha256;
+    }
+
+    public boolean isSpooledToDisk() {
+        return file != null;
+    }
+
+    public InputStream openStream() {
+        return openStream(ByteBufferInputStream::new);
+    }
+
+    /**
+     * Opens a stream built on a read-only view of the content, such as a chunk cut out of it. The
+     * view stays valid until the returned stream is closed.
+     */
+    InputStream openStream(Function<ByteBuffer, InputStream> view) {
+        if (heap != null) return view.apply(ByteBuffer.wrap(heap).asReadOnlyBuffer());
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Spooled media has been closed");
+            openStreams++;
+            try {
+                return new ReleasingInputStream(view.apply(mapped.duplicate()));
+            } catch (RuntimeException e) {
+                openStreams--;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs {@code reader} against a read-only view of the content without copying it; the view must
+     * not be kept once the reader returns.
+     */
+    <T> T read(Function<ByteBuffer, T> reader) {
+        if (heap != null) return reader.apply(ByteBuffer.wrap(heap).asReadOnlyBuffer());
+        ByteBuffer view;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Spooled media has been closed");
+            openStreams++;
+            view = mapped.duplicate();
+        }
+        try {
+            return reader.apply(view);
+        } finally {
+            streamClosed();
+        }
+    }
+
+    /**
+     * A multipart-friendly view that opens a fresh stream each time it is written, so retries
+     * re-read the spooled copy instead of the network.
+     */
+    public Resource asResource(String filename) {
+        return new AbstractResource() {
+            @Override
+            public InputStream getInputStream() {
+                return openStream();
+            }
+
+            @Override
+            public long contentLength() {
+                return size;
+            }
+
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+
+            @Override
+            public String getDescription() {
+                return "Spooled media [" + filename + ", " + size + " bytes]";
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (file == null) return;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            // A request abandoned at its deadline may still be reading; it releases the mapping when done
+            if (openStreams == 0) unmap();
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete media spool file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private synchronized void streamClosed() {
+        if (--openStreams == 0 && closed) unmap();
+    }
+
+    private void unmap() {
+        MappedByteBuffer buffer = mapped;
+        mapped = null;
+        if (buffer == null || INVOKE_CLEANER == null) return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Could not unmap {}, leaving it to the garbage collector: {}", file, e.getMessage());
+        }
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void checkCap(long total, long maxBytes) {
+        if (total > maxBytes) {
+            throw new IllegalStateException("Media exceeds the " + (maxBytes / (1024 * 1024)) + " MB limit");
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    // Holds a reference on the mapping until closed
+    private final class ReleasingInputStream extends FilterInputStream {
+        private boolean released;
+
+        ReleasingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) return;
+            released = true;
+            try {
+                super.close();
+            } finally {
+                streamClosed();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            ensureOpen();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            ensureOpen();
+            return super.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return released ? 0 : super.available();
+        }
+
+        // The mapping may be gone once this stream is closed
+        private void ensureOpen() throws IOException {
+            if (released) throw new IOException("Stream closed");
+        }
+    }
+}
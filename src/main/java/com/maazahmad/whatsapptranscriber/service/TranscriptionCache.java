@@ -0,0 +1,119 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Content-addressed cache of Whisper results, keyed by the audio's SHA-256 and the model name.
+ * Forwarded voice notes and Meta redeliveries hit the in-memory LRU tier; with
+ * {@code transcription.cache.jdbc.enabled=true} results also survive restarts in Postgres.
+ */
+@Component
+public class TranscriptionCache {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean jdbcEnabled;
+    private final Duration ttl;
+    private final Cache<String, String> memory;
+
+    private final Counter memoryHits;
+    private final Counter jdbcHits;
+    private final Counter misses;
+    private final Counter bytesSaved;
+
+    public TranscriptionCache(JdbcTemplate jdbcTemplate,
+                              @Value("${transcription.cache.max-entries:10000}") long maxEntries,
+                              @Value("${transcription.cache.ttl:PT168H}") Duration ttl,
+                              @Value("${transcription.cache.jdbc.enabled:false}") boolean jdbcEnabled,
+                              MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcEnabled = jdbcEnabled;
+        this.ttl = ttl;
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, memory, "transcriptions");
+        this.memoryHits = meterRegistry.counter("transcription.cache.hits", "tier", "memory");
+        this.jdbcHits = meterRegistry.counter("transcription.cache.hits", "tier", "jdbc");
+        this.misses = meterRegistry.counter("transcription.cache.misses");
+        this.bytesSaved = Counter.builder("transcription.cache.bytes.saved")
+                .description("Audio bytes that did not have to be uploaded to Whisper")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void createTable() {
+        if (!jdbcEnabled) return;
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS transcription_cache (" +
+                "cache_key VARCHAR(255) PRIMARY KEY, " +
+                "transcript TEXT NOT NULL, " +
+                "audio_bytes BIGINT NOT NULL, " +
+                "created_at TIMESTAMP NOT NULL)");
+    }
+
+    public Optional<String> get(String audioSha256, String model, long audioBytes) {
+        String key = key(audioSha256, model);
+
+        String text = memory.getIfPresent(key);
+        if (text != null) {
+            memoryHits.increment();
+            bytesSaved.increment(audioBytes);
+            return Optional.of(text);
+        }
+
+        if (jdbcEnabled) {
+            List<String> rows = jdbcTemplate.queryForList(
+                    "SELECT transcript FROM transcription_cache WHERE cache_key = ? AND created_at > ?",
+                    String.class, key, Timestamp.from(Instant.now().minus(ttl)));
+            if (!rows.isEmpty()) {
+                memory.put(key, rows.get(0));
+                jdbcHits.increment();
+                bytesSaved.increment(audioBytes);
+                return Optional.of(rows.get(0));
+            }
+        }
+
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public void put(String audioSha256, String model, long audioBytes, String transcript) {
+        String key = key(audioSha256, model);
+        memory.put(key, transcript);
+
+        if (jdbcEnabled) {
+            jdbcTemplate.update("INSERT INTO transcription_cache (cache_key, transcript, audio_bytes, created_at) " +
+                            "VALUES (?, ?, ?, ?) ON CONFLICT (cache_key) DO UPDATE " +
+                            "SET transcript = EXCLUDED.transcript, created_at = EXCLUDED.created_at",
+                    key, transcript, audioBytes, Timestamp.from(Instant.now()));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${transcription.cache.jdbc.purge-interval-ms:3600000}")
+    public void purgeExpired() {
+        if (!jdbcEnabled) return;
+        jdbcTemplate.update("DELETE FROM transcription_cache WHERE created_at < ?", Timestamp.from(Instant.now().minus(ttl)));
+    }
+
+    private static String key(String audioSha256, String model) {
+        return model + ":" + audioSha256;
+    }
+}
@@ -0,0 +1,89 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.maazahmad.whatsapptranscriber.model.User;
+import com.maazahmad.whatsapptranscriber.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Write-through cache in front of {@link UserRepository#findByPhoneNumber}. Unknown senders are cached
+ * too (for a shorter time) so spam from unregistered numbers doesn't reach Postgres on every message.
+ */
+@Service
+public class UserLookupService {
+
+    private final UserRepository userRepository;
+    private final Cache<String, Optional<User>> users;
+    private final Counter negativeHits;
+
+    public UserLookupService(UserRepository userRepository,
+                             @Value("${users.cache.max-entries:50000}") long maxEntries,
+                             @Value("${users.cache.ttl:PT30M}") Duration ttl,
+                             @Value("${users.cache.negative-ttl:PT2M}") Duration negativeTtl,
+                             MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.users = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new PresenceExpiry(ttl, negativeTtl))
+                .recordStats()
+                .build();
+        this.negativeHits = meterRegistry.counter("users.cache.negative.hits");
+        CaffeineCacheMetrics.monitor(meterRegistry, users, "users");
+    }
+
+    public Optional<User> findByPhoneNumber(String phoneNumber) {
+        Optional<User> cached = users.getIfPresent(phoneNumber);
+        if (cached != null) {
+            if (cached.isEmpty()) negativeHits.increment();
+            return cached;
+        }
+        return users.get(phoneNumber, userRepository::findByPhoneNumber);
+    }
+
+    /**
+     * Persists the user and replaces whatever (possibly negative) entry the cache held for the number.
+     */
+    public User save(User user) {
+        User saved = userRepository.save(user);
+        users.put(saved.getPhoneNumber(), Optional.of(saved));
+        return saved;
+    }
+
+    public void evict(String phoneNumber) {
+        users.invalidate(phoneNumber);
+    }
+
+    private static final class PresenceExpiry implements Expiry<String, Optional<User>> {
+        private final long ttlNanos;
+        private final long negativeTtlNanos;
+
+        PresenceExpiry(Duration ttl, Duration negativeTtl) {
+            this.ttlNanos = ttl.toNanos();
+            this.negativeTtlNanos = negativeTtl.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(String key, Optional<User> value, long currentTime) {
+            return value.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Optional<User> value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Optional<User> value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.maazahmad.whatsapptranscriber.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maazahmad.whatsapptranscriber.dto.InboundMessage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flattens a Meta webhook delivery into its messages. Under load Meta batches several entries,
+ * changes and messages into one POST, so every level is walked rather than just index 0.
+ */
+@Component
+@RequiredArgsConstructor
+public class WebhookPayloadParser {
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Returns the messages in delivery order, de-duplicated by message id. Status updates and read
+     * receipts are skipped.
+     */
+    public List<InboundMessage> parse(String rawPayload, long receivedAtNanos) throws IOException {
+        JsonNode payload = objectMapper.readTree(rawPayload);
+        Map<String, InboundMessage> messages = new LinkedHashMap<>();
+
+        for (JsonNode entry : payload.path("entry")) {
+            for (JsonNode change : entry.path("changes")) {
+                for (JsonNode message : change.path("value").path("messages")) {
+                    String msgId = message.path("id").asText("default_id");
+                    messages.putIfAbsent(msgId, InboundMessage.builder()
+                            .id(msgId)
+                            .from(message.path("from").asText())
+                            .type(message.path("type").asText())
+                            .mediaId(message.path("audio").path("id").asText(null))
+                            .textBody(message.path("text").path("body").asText(null))
+                            .receivedAtNanos(receivedAtNanos)
+                            .build());
+                }
+            }
+        }
+        return new ArrayList<>(messages.values());
+    }
+}
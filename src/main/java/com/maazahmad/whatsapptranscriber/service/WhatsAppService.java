@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
@@ -12,10 +14,12 @@ import org.springframework.web.client.RestTemplate;
 import java.util.HashMap;
 import java.util.Map;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class WhatsAppService {
 
+    @Qualifier("whatsappRestTemplate")
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
 
@@ -28,6 +32,12 @@ public class WhatsAppService {
     @Value("${whatsapp.phoneNumberId}")
     private String phoneNumberId;
 
+    @Value("${media.spool.heap-threshold-bytes:524288}")
+    private int heapThresholdBytes;
+
+    @Value("${media.max-bytes:16777216}")
+    private long maxMediaBytes;
+
     @SneakyThrows
     public String getMediaUrl(String mediaId) {
         String url = whatsappApiUrl + "/" + mediaId;
@@ -45,28 +55,41 @@ public class WhatsAppService {
         }
     }
 
-    public byte[] downloadFile(String url) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setBearerAuth(whatsappToken);
-
-        HttpEntity<Void> requestEntity = new HttpEntity<>(headers);
-        ResponseEntity<byte[]> response = restTemplate.exchange(url, HttpMethod.GET, requestEntity, byte[].class);
-
-        if (response.getStatusCode().is2xxSuccessful()) {
-            return response.getBody();
-        } else {
-            throw new RuntimeException("Failed to download file: " + response.getStatusCode());
-        }
+    /**
+     * Streams the media into a {@link SpooledMedia} instead of a byte[]; the caller must close it.
+     */
+    public SpooledMedia downloadMedia(String url) {
+        return restTemplate.execute(url, HttpMethod.GET,
+                request -> request.getHeaders().setBearerAuth(whatsappToken),
+                response -> {
+                    long declared = response.getHeaders().getContentLength();
+                    if (declared > maxMediaBytes) {
+                        throw new IllegalStateException("Media exceeds the " + (maxMediaBytes / (1024 * 1024)) + " MB limit");
+                    }
+                    return SpooledMedia.spool(response.getBody(), heapThresholdBytes, maxMediaBytes);
+                });
     }
 
+    /**
+     * One send attempt; throws on any error. Replies should go through {@link ReplyDispatcher},
+     * which adds pacing, retries and dead-lettering.
+     */
     public void sendReply(String to, String text) {
         String url = whatsappApiUrl + "/" + phoneNumberId + "/messages";
-        System.out.println("DEBUG: Sending message to: " + to + " using Phone ID: " + phoneNumberId);
+        log.debug("Sending message to {} using phone id {}", to, phoneNumberId);
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setBearerAuth(whatsappToken);
 
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(buildReplyBody(to, text), headers);
+
+        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
+        log.debug("Meta accepted reply to {}: {}", to, response.getBody());
+    }
+
+    // Graph API text message body (also exercised by the JMH benchmarks)
+    static Map<String, Object> buildReplyBody(String to, String text) {
         Map<String, Object> body = new HashMap<>();
         body.put("messaging_product", "whatsapp");
         body.put("to", to);
@@ -74,18 +97,6 @@ public class WhatsAppService {
         Map<String, String> textBody = new HashMap<>();
         textBody.put("body", text);
         body.put("text", textBody);
-
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-        
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
-            System.out.println("META SUCCESS: " + response.getBody());
-        } catch (org.springframework.web.client.HttpClientErrorException e) {
-            System.out.println("META ERROR BODY: " + e.getResponseBodyAsString());
-            System.out.println("META ERROR STATUS: " + e.getStatusCode());
-        } catch (Exception e) {
-            System.out.println("SYSTEM ERROR: " + e.getMessage());
-            e.printStackTrace();
-        }
+        return body;
     }
 }